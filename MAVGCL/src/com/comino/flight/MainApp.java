@@ -239,11 +239,29 @@ public class MainApp extends Application  {
 
 		menubar.setUseSystemMenuBar(true);
 
+		// while a file is imported or exported, the file items cancel it
+		String[] fileItemTexts = { m_import.getText(), m_px4log.getText(), m_export.getText() };
+		FileHandler.getInstance().getBusyProperty().addListener((observable, oldvalue, newvalue) -> {
+			if(newvalue.booleanValue()) {
+				String cancel = "Cancel "+FileHandler.getInstance().getTask()+"...";
+				m_import.setText(cancel);
+				m_px4log.setText(cancel);
+				m_export.setText(cancel);
+			} else {
+				m_import.setText(fileItemTexts[0]);
+				m_px4log.setText(fileItemTexts[1]);
+				m_export.setText(fileItemTexts[2]);
+				controlpanel.getChartControl().refreshCharts();
+			}
+		});
+
 		m_import.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
-				FileHandler.getInstance().fileImport();
-  			    controlpanel.getChartControl().refreshCharts();
+				if(FileHandler.getInstance().isBusy())
+					FileHandler.getInstance().cancel();
+				else
+					FileHandler.getInstance().fileImport();
 			}
 
 		});
@@ -251,8 +269,10 @@ public class MainApp extends Application  {
 		m_px4log.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
-				FileHandler.getInstance().fileImportLog();
-				controlpanel.getChartControl().refreshCharts();
+				if(FileHandler.getInstance().isBusy())
+					FileHandler.getInstance().cancel();
+				else
+					FileHandler.getInstance().fileImportLog();
 			}
 
 		});
@@ -262,6 +282,16 @@ public class MainApp extends Application  {
 			String m_text = r_px4log.getText();
 			MAVPX4LogReader log = new MAVPX4LogReader(control);
 
+			{
+				// the model fills up during the download, follow it in the charts
+				StateProperties.getInstance().getProgressProperty().addListener((observable, oldvalue, newvalue) -> {
+					if(log.isCollecting().get() && newvalue.floatValue() > 0)
+						Platform.runLater(() -> {
+							controlpanel.getChartControl().refreshCharts();
+						});
+				});
+			}
+
 			@Override
 			public void handle(ActionEvent event) {
 				if(StateProperties.getInstance().getArmedProperty().get()) {
@@ -288,7 +318,9 @@ public class MainApp extends Application  {
 		});
 
 		m_export.setOnAction(event -> {
-			if(AnalysisModelService.getInstance().getModelList().size()>0)
+			if(FileHandler.getInstance().isBusy())
+				FileHandler.getInstance().cancel();
+			else if(AnalysisModelService.getInstance().getModelList().size()>0)
 				FileHandler.getInstance().fileExport();
 		});
 
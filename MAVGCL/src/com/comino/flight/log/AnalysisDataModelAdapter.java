@@ -0,0 +1,132 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.IOException;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.store.KeyFigureColumns;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes AnalysisDataModel rows in the MAVGCL JSON format
+ * {tms, msg, status, data:{hash:value}}.
+ */
+public class AnalysisDataModelAdapter extends TypeAdapter<AnalysisDataModel> {
+
+	private final KeyFigureColumns      columns = KeyFigureColumns.getInstance();
+
+	private final TypeAdapter<LogMessage> msgAdapter;
+	private final TypeAdapter<Status>     statusAdapter;
+
+	public AnalysisDataModelAdapter() {
+		Gson gson = new Gson();
+		this.msgAdapter    = gson.getAdapter(LogMessage.class);
+		this.statusAdapter = gson.getAdapter(Status.class);
+	}
+
+	@Override
+	public void write(JsonWriter out, AnalysisDataModel m) throws IOException {
+		out.beginObject();
+		out.name("tms").value(m.tms);
+		if(m.msg!=null) {
+			out.name("msg");
+			msgAdapter.write(out, m.msg);
+		}
+		if(m.status!=null) {
+			out.name("status");
+			statusAdapter.write(out, m.status);
+		}
+		out.name("data");
+		out.beginObject();
+		for(int c = 0; c < m.getColumnCount(); c++) {
+			float v = m.getColumnValue(c);
+			if(v != 0)
+				out.name(String.valueOf(columns.getHash(c))).value(v);
+		}
+		out.endObject();
+		out.endObject();
+	}
+
+	@Override
+	public AnalysisDataModel read(JsonReader in) throws IOException {
+		AnalysisDataModel m = new AnalysisDataModel();
+		read(in, m);
+		return m;
+	}
+
+	/**
+	 * Reads the next row into an existing model, which is cleared before.
+	 */
+	public void read(JsonReader in, AnalysisDataModel m) throws IOException {
+		m.clear();
+		in.beginObject();
+		while(in.hasNext()) {
+			String name = in.nextName();
+			if(in.peek()==JsonToken.NULL) {
+				in.nextNull();
+				continue;
+			}
+			switch(name) {
+			case "tms":
+				m.tms = in.nextLong();
+				break;
+			case "msg":
+				m.msg = msgAdapter.read(in);
+				break;
+			case "status":
+				m.status = statusAdapter.read(in);
+				break;
+			case "data":
+				in.beginObject();
+				while(in.hasNext()) {
+					int hash = Integer.parseInt(in.nextName());
+					m.setColumnValue(columns.getColumn(hash), (float)in.nextDouble());
+				}
+				in.endObject();
+				break;
+			default:
+				in.skipValue();
+			}
+		}
+		in.endObject();
+	}
+}
@@ -0,0 +1,273 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.comino.flight.log.px4log.PX4toModelConverter;
+import com.comino.flight.log.tlog.TLogtoModelConverter;
+import com.comino.flight.log.ulog.UlogtoModelConverter;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
+
+import me.drton.jmavlib.log.TLogReader;
+import me.drton.jmavlib.log.px4.PX4LogReader;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/**
+ * Headless conversion of log archives to MAVGCL model files, without the FX
+ * toolkit. Directories are searched recursively for .ulg, .px4log and .tlog
+ * files, which are converted by a fixed pool of workers, one file per worker.
+ * Failures are reported per file and do not stop the batch.
+ *
+ * <pre>
+ * java -cp MAVGCL.jar:lib/* com.comino.flight.log.BatchConverter [options] &lt;file|dir&gt;...
+ *   -threads &lt;n&gt;   number of workers (default: number of processors)
+ *   -rate &lt;hz&gt;     rows per second (default: 20)
+ *   -out &lt;dir&gt;     target directory, the tree below the given directories is kept
+ *                  (default: next to the logs)
+ *   -force         convert also logs with an up-to-date model file
+ * </pre>
+ */
+public class BatchConverter {
+
+	private static final String[] EXTENSIONS = { ".ulg", ".px4log", ".tlog" };
+	private static final String TARGET = ".mgc";
+
+	private int    threads   = Runtime.getRuntime().availableProcessors();
+	private int    rate_hz   = 1000000 / AnalysisDataStore.DEFAULT_INTERVAL_US;
+	private File   targetDir = null;
+	private boolean force    = false;
+
+
+	public BatchConverter() {
+		// load the model definition before the workers use it
+		AnalysisDataModelMetaData.getInstance();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchConverter converter = new BatchConverter();
+		List<File> sources = new ArrayList<File>();
+		try {
+			for(int i = 0; i < args.length; i++) {
+				switch(args[i]) {
+				case "-threads": converter.threads   = Integer.parseInt(args[++i]); break;
+				case "-rate":    converter.rate_hz   = Integer.parseInt(args[++i]); break;
+				case "-out":     converter.targetDir = new File(args[++i]);        break;
+				case "-force":   converter.force     = true;                       break;
+				default:
+					if(args[i].startsWith("-"))
+						throw new IllegalArgumentException("Unknown option "+args[i]);
+					sources.add(new File(args[i]));
+				}
+			}
+		} catch(RuntimeException e) {
+			System.err.println(e.getMessage());
+			sources.clear();
+		}
+
+		if(sources.isEmpty() || converter.threads < 1 || converter.rate_hz < 1) {
+			System.err.println("Usage: BatchConverter [-threads n] [-rate hz] [-out dir] [-force] <file|dir>...");
+			System.exit(2);
+		}
+
+		System.exit(converter.convert(sources) > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Converts all logs found in the given files and directories.
+	 *
+	 * @return number of failed conversions
+	 */
+	public int convert(List<File> sources) {
+		List<Job> jobs = new ArrayList<Job>();
+		Set<File> targets = new HashSet<File>();
+		for(File source : sources) {
+			if(source.isDirectory()) {
+				try (Stream<Path> files = Files.walk(source.toPath())) {
+					for(Path p : files.filter(f -> isLog(f.toFile())).sorted().collect(Collectors.toList()))
+						jobs.add(new Job(p.toFile(), getTarget(source, p.toFile(), targets)));
+				} catch(IOException e) {
+					System.err.println(source+": "+e.getMessage());
+				}
+			} else if(isLog(source))
+				jobs.add(new Job(source, getTarget(source.getAbsoluteFile().getParentFile(), source, targets)));
+			else
+				System.err.println(source+": not a log file");
+		}
+
+		long tms = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for(Job job : jobs)
+			results.add(pool.submit(() -> job.run()));
+		pool.shutdown();
+
+		int failed = 0, skipped = 0; long bytes = 0;
+		for(Future<Long> result : results) {
+			try {
+				long b = result.get();
+				if(b < 0)
+					skipped++;
+				else
+					bytes += b;
+			} catch(Exception e) {
+				failed++;
+			}
+		}
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) { }
+
+		float secs = (System.currentTimeMillis() - tms) / 1000f;
+		System.out.println(String.format("%d logs converted, %d up to date, %d failed: %.1f MB in %.1f s (%.1f MB/s)",
+				jobs.size() - failed - skipped, skipped, failed, bytes / 1e6f, secs, bytes / 1e6f / Math.max(secs, 0.001f)));
+		return failed;
+	}
+
+	private boolean isLog(File file) {
+		if(!file.isFile())
+			return false;
+		String name = file.getName().toLowerCase();
+		for(String ext : EXTENSIONS)
+			if(name.endsWith(ext))
+				return true;
+		return false;
+	}
+
+	// logs of different formats with the same name keep their extension
+	private File getTarget(File base, File log, Set<File> targets) {
+		File dir = log.getAbsoluteFile().getParentFile();
+		if(targetDir != null)
+			dir = targetDir.toPath().resolve(base.toPath().toAbsolutePath().relativize(dir.toPath())).toFile();
+		String name = log.getName();
+		File target = new File(dir, name.substring(0, name.lastIndexOf('.')) + TARGET);
+		if(!targets.add(target)) {
+			target = new File(dir, name + TARGET);
+			targets.add(target);
+		}
+		return target;
+	}
+
+
+	private class Job {
+
+		private final File log;
+		private final File target;
+
+		public Job(File log, File target) {
+			this.log    = log;
+			this.target = target;
+		}
+
+		/**
+		 * @return bytes of the log converted or -1 if the target was up to date
+		 */
+		public long run() throws Exception {
+			if(!force && target.exists() && target.lastModified() >= log.lastModified())
+				return -1;
+
+			long tms = System.nanoTime();
+			try {
+				AnalysisDataStore list = new AnalysisDataStore();
+				list.setInterval_us(1000000 / rate_hz);
+				read(list);
+				write(list);
+
+				float secs = (System.nanoTime() - tms) / 1e9f;
+				System.out.println(String.format("%s: %d rows, %.1f MB in %.2f s (%.1f MB/s)", log, list.size(),
+						log.length() / 1e6f, secs, log.length() / 1e6f / secs));
+				return log.length();
+			} catch(Exception e) {
+				System.err.println(log+": conversion failed: "+e);
+				target.delete();
+				throw e;
+			}
+		}
+
+		// The pool converts files in parallel, so each log is read in one segment
+		private void read(AnalysisDataStore list) throws Exception {
+			String name = log.getName().toLowerCase();
+			if(name.endsWith(".ulg")) {
+				ULogReader reader = new ULogReader(log.getAbsolutePath());
+				try {
+					new UlogtoModelConverter(reader, list).doConversion(1);
+				} finally {
+					reader.close();
+				}
+			} else if(name.endsWith(".px4log")) {
+				PX4LogReader reader = new PX4LogReader(log.getAbsolutePath());
+				try {
+					new PX4toModelConverter(reader, list).doConversion();
+				} finally {
+					reader.close();
+				}
+			} else {
+				TLogReader reader = new TLogReader(log.getAbsolutePath(), TLogtoModelConverter.getSchema());
+				try {
+					new TLogtoModelConverter(reader, TLogtoModelConverter.getSchema(), list).doConversion(1);
+				} finally {
+					reader.close();
+				}
+			}
+			if(list.isEmpty())
+				throw new IOException("no data found");
+		}
+
+		private void write(AnalysisDataStore list) throws IOException {
+			target.getParentFile().mkdirs();
+			File tmp = new File(target.getPath()+".tmp");
+			new MGCFile().write(list, tmp);
+			target.delete();
+			if(!tmp.renameTo(target))
+				throw new IOException("cannot write "+target);
+		}
+	}
+}
@@ -34,41 +34,58 @@
 package com.comino.flight.log;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
-import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.prefs.Preferences;
 
+import org.mavlink.messages.MAV_SEVERITY;
+
 import com.comino.flight.log.px4log.PX4toModelConverter;
+import com.comino.flight.log.tlog.TLogtoModelConverter;
 import com.comino.flight.log.ulog.UlogtoModelConverter;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.parameter.PX4Parameters;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mav.control.IMAVController;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.comino.msp.log.MSPLogger;
 
-import javafx.scene.Cursor;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.FloatProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
+import me.drton.jmavlib.log.TLogReader;
 import me.drton.jmavlib.log.px4.PX4LogReader;
 import me.drton.jmavlib.log.ulog.ULogReader;
-
-
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+
+/**
+ * File import and export. Files are read, converted and written by a
+ * background worker, one at a time, so the application thread stays
+ * responsive. An import fills a new list, which replaces the model list on
+ * the application thread when complete; a cancelled or failed import leaves
+ * the current data untouched.
+ */
 public class FileHandler {
 
 	private static final String BASEPATH = "/.MAVGCL";
-	private static final String TMPFILE  =  "/px4tmp.tmp";
+	private static final String DOWNLOADDIR = "/download";
+	private static final String SEGFILE  =  "/recording.seg";
+	private static final String INDEXDIR =  "/index";
 
 	private static FileHandler handler = null;
 
@@ -78,6 +95,16 @@ public class FileHandler {
 
 	private AnalysisModelService modelService = AnalysisModelService.getInstance();
 
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "FileHandler");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final BooleanProperty busy = new SimpleBooleanProperty(false);
+	// running and queued jobs, used on the application thread only
+	private final Deque<Job> jobs = new ArrayDeque<Job>();
+
 
 	public static FileHandler getInstance() {
 		return handler;
@@ -93,6 +120,7 @@ public class FileHandler {
 		super();
 		this.stage = stage;
 		this.userPrefs = MAVPreferences.getInstance();
+		this.modelService.setSpillFile(new File(getBasePath()+SEGFILE));
 	}
 
 	public String getName() {
@@ -111,114 +139,275 @@ public class FileHandler {
 		return System.getProperty("user.home")+BASEPATH;
 	}
 
+	/**
+	 * True while a file is imported or exported; changes on the application thread.
+	 */
+	public BooleanProperty getBusyProperty() {
+		return busy;
+	}
+
+	public boolean isBusy() {
+		return busy.get();
+	}
+
+	/**
+	 * Description of the running import or export.
+	 */
+	public String getTask() {
+		Job job = jobs.peekFirst();
+		return job != null ? job.description : "";
+	}
+
+	/**
+	 * Cancels the running import or export at the next progress update and
+	 * the queued ones.
+	 */
+	public void cancel() {
+		for(Job job : jobs)
+			job.monitor.cancel();
+	}
+
 	public void fileImport() {
+		if(isBusy())
+			return;
+
 		FileChooser fileChooser = getFileDialog("Open MAVGCL model file...",
 				new ExtensionFilter("MAVGCL Model Files", "*.mgc"));
 
 		File file = fileChooser.showOpenDialog(stage);
-		try {
-			if(file!=null) {
-				Type listType = new TypeToken<ArrayList<AnalysisDataModel>>() {}.getType();
-				Reader reader = new FileReader(file);
-				Gson gson = new GsonBuilder().create();
-				stage.getScene().setCursor(Cursor.WAIT); //Change cursor to wait style
-				ArrayList<AnalysisDataModel>modelList = gson.fromJson(reader,listType);
-				reader.close();
-				modelService.setModelList(modelList);
-				stage.getScene().setCursor(Cursor.DEFAULT);
-				name = file.getName();
-				StateProperties.getInstance().getLogLoadedProperty().set(true);
-
-			}
-		} catch (IOException e) {
-			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
-		}
+		if(file!=null)
+			submitImport(file, createMonitor(ProgressMonitor.Stage.READING));
 	}
 
 
 	public void fileImportLog() {
+		if(isBusy())
+			return;
+
 		FileChooser fileChooser = getFileDialog("Import data ...",
 				new ExtensionFilter("PX4Log Files", "*.px4log"),
 				new ExtensionFilter("ULog Files", "*.ulg"),
+				new ExtensionFilter("MAVLink Telemetry Files", "*.tlog"),
 				new ExtensionFilter("MAVGCL Files","*.mgc"));
 
 		File file = fileChooser.showOpenDialog(stage);
-		try {
-			if(file!=null) {
-				stage.getScene().setCursor(Cursor.WAIT);
-				if(file.getName().endsWith("px4log")) {
-				   PX4LogReader reader = new PX4LogReader(file.getAbsolutePath());
-				   PX4Parameters.getInstance().setParametersFromLog(reader.getParameters());
-				   PX4toModelConverter converter = new PX4toModelConverter(reader,modelService.getModelList());
-				   converter.doConversion();
-				   StateProperties.getInstance().getLogLoadedProperty().set(true);
-				}
-
-				if(file.getName().endsWith("ulg")) {
-					  ULogReader reader = new ULogReader(file.getAbsolutePath());
-					  PX4Parameters.getInstance().setParametersFromLog(reader.getParameters());
-					  UlogtoModelConverter converter = new UlogtoModelConverter(reader,modelService.getModelList());
-					  converter.doConversion();
-					  StateProperties.getInstance().getLogLoadedProperty().set(true);
-				}
-
-				if(file.getName().endsWith("mgc")) {
-					Type listType = new TypeToken<ArrayList<AnalysisDataModel>>() {}.getType();
-					Reader reader = new FileReader(file);
-					Gson gson = new GsonBuilder().create();
-					stage.getScene().setCursor(Cursor.WAIT); //Change cursor to wait style
-					ArrayList<AnalysisDataModel>modelList = gson.fromJson(reader,listType);
-					reader.close();
-					modelService.setModelList(modelList);
-					StateProperties.getInstance().getLogLoadedProperty().set(true);
-				}
-
-				stage.getScene().setCursor(Cursor.DEFAULT);
-				name = file.getName();
-
-			}
-		} catch (Exception e) {
-			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
-		}
-
+		if(file==null)
+			return;
+
+		if(file.getName().endsWith("px4log"))
+			submitImport(file, createMonitor(ProgressMonitor.Stage.READING, ProgressMonitor.Stage.DECODING));
+		else if(file.getName().endsWith("ulg") || file.getName().endsWith("tlog"))
+			submitImport(file, createMonitor(ProgressMonitor.Stage.READING, ProgressMonitor.Stage.DECODING,
+					ProgressMonitor.Stage.RESAMPLING, ProgressMonitor.Stage.INDEXING));
+		else if(file.getName().endsWith("mgc"))
+			submitImport(file, createMonitor(ProgressMonitor.Stage.READING));
 	}
 
 
 	public void fileExport() {
+		if(isBusy())
+			return;
 
+		ExtensionFilter legacy = new ExtensionFilter("MAVGCL Model Files (JSON, legacy)", "*.mgc");
 		FileChooser fileChooser = getFileDialog("Save to MAVGCL model file...",
-				new ExtensionFilter("MAVGCL Model Files", "*.mgc"));
+				new ExtensionFilter("MAVGCL Model Files", "*.mgc"), legacy);
 
 		if(name.length()<2)
 		      name = new SimpleDateFormat("ddMMyy-HHmmss'.mgc'").format(new Date());
 
 		fileChooser.setInitialFileName(name);
 		File file = fileChooser.showSaveDialog(stage);
-		try {
-			if(file!=null) {
-				Writer writer = new FileWriter(file);
-				Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
-				stage.getScene().setCursor(Cursor.WAIT);
-				gson.toJson(modelService.getModelList(), writer);
-				writer.close();
-				stage.getScene().setCursor(Cursor.DEFAULT);
-				name = file.getName();
+		if(file==null)
+			return;
+
+		boolean json = fileChooser.getSelectedExtensionFilter() == legacy;
+		AnalysisDataStore list = modelService.getModelList();
+		ProgressMonitor m = createMonitor(ProgressMonitor.Stage.WRITING);
+
+		submit("export of "+file.getName(), m, () -> {
+			m.stage(ProgressMonitor.Stage.WRITING);
+			// the list may be paged in from the file it replaces
+			File tmp = new File(file.getPath()+".tmp");
+			try {
+				MGCFile mgc = new MGCFile(m);
+				if(json)
+					mgc.writeJSON(list, tmp);
+				else
+					mgc.write(list, tmp);
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch(IOException | RuntimeException e) {
+				tmp.delete();
+				throw e;
+			}
+			return () -> name = file.getName();
+		});
+	}
 
+
+	/**
+	 * Converts a ULog downloaded from the device in the background like an imported
+	 * file. May be called from any thread.
+	 */
+	public void importDownloadedULog(File file, String name) {
+		Platform.runLater(() -> submitImport(file, "ulg", name,
+				createMonitor(ProgressMonitor.Stage.READING, ProgressMonitor.Stage.DECODING,
+						ProgressMonitor.Stage.RESAMPLING, ProgressMonitor.Stage.INDEXING)));
+	}
+
+	private void submitImport(File file, ProgressMonitor m) {
+		submitImport(file, file.getName(), file.getName(), m);
+	}
+
+	/**
+	 * Reads and converts the file into a new list, which is published when complete.
+	 * The type is matched against the file extensions.
+	 */
+	private void submitImport(File file, String type, String logname, ProgressMonitor m) {
+		submit("import of "+logname, m, () -> {
+			AnalysisDataStore list = modelService.createImportList();
+			Map<String,Object> parameters = importFile(file, type, list, m);
+			return () -> {
+				modelService.replaceModelList(list);
+				if(parameters != null)
+					PX4Parameters.getInstance().setParametersFromLog(parameters);
+				name = logname;
+				StateProperties.getInstance().getLogLoadedProperty().set(true);
+			};
+		});
+	}
+
+	/**
+	 * @return parameters of the log, null for model files
+	 */
+	private Map<String,Object> importFile(File file, String type, AnalysisDataStore list, ProgressMonitor m) throws Exception {
+		m.stage(ProgressMonitor.Stage.READING);
+
+		if(type.endsWith("px4log")) {
+			PX4LogReader reader = new PX4LogReader(file.getAbsolutePath());
+			try {
+				PX4toModelConverter converter = new PX4toModelConverter(reader,list);
+				converter.setMonitor(m);
+				converter.doConversion();
+				return reader.getParameters();
+			} finally {
+				reader.close();
+			}
+		}
+
+		if(type.endsWith("ulg")) {
+			ULogReader reader = new ULogReader(file.getAbsolutePath(), new File(getBasePath()+INDEXDIR));
+			try {
+				UlogtoModelConverter converter = new UlogtoModelConverter(reader,list);
+				converter.setMonitor(m);
+				converter.doConversion();
+				return reader.getParameters();
+			} finally {
+				reader.close();
+			}
+		}
+
+		if(type.endsWith("tlog")) {
+			MAVLinkSchema schema = TLogtoModelConverter.getSchema();
+			TLogReader reader = new TLogReader(file.getAbsolutePath(), schema);
+			try {
+				TLogtoModelConverter converter = new TLogtoModelConverter(reader,schema,list);
+				converter.setMonitor(m);
+				converter.doConversion();
+				return reader.getParameters();
+			} finally {
+				reader.close();
 			}
-		} catch (IOException e) {
-			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
 		}
 
+		importModelFile(file, list, m);
+		return null;
 	}
 
+	/**
+	 * Opens a model file; rows of current binary files are paged in on access.
+	 */
+	private void importModelFile(File file, AnalysisDataStore list, ProgressMonitor m) throws IOException {
+		new MGCFile(m).open(file, list);
+	}
+
+	private ProgressMonitor createMonitor(ProgressMonitor.Stage... stages) {
+		FloatProperty progress = StateProperties.getInstance().getProgressProperty();
+		return new ProgressMonitor(p -> progress.set((float)p), stages);
+	}
+
+	/**
+	 * Runs the job on the worker. The job returns the update of the application
+	 * state, which is run on the application thread if the job succeeded.
+	 * Failures are reported to the message log. Jobs submitted while another one
+	 * is running are queued.
+	 */
+	private void submit(String description, ProgressMonitor m, Callable<Runnable> job) {
+		Job entry = new Job(description, m);
+		jobs.addLast(entry);
+		busy.set(true);
+		worker.submit(() -> {
+			Runnable update = null;
+			String error = null;
+			try {
+				m.checkCancelled();
+				update = job.call();
+			} catch(CancellationException e) {
+				error = capitalize(description)+" cancelled";
+			} catch(Throwable e) {
+				error = capitalize(description)+" failed: "+(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+			} finally {
+				m.done();
+			}
+			Runnable done = update;
+			String message = error;
+			Platform.runLater(() -> {
+				try {
+					if(done != null)
+						done.run();
+					if(message != null)
+						MSPLogger.getInstance().writeLocalMsg(message, MAV_SEVERITY.MAV_SEVERITY_WARNING);
+				} finally {
+					jobs.remove(entry);
+					if(jobs.isEmpty())
+						busy.set(false);
+				}
+			});
+		});
+	}
+
+	private static class Job {
 
-	public File getTempFile() throws IOException {
-		File f = new File(getBasePath()+TMPFILE);
-		if(f.exists())
-			f.delete();
-		f.createNewFile();
-		return f;
+		final String description;
+		final ProgressMonitor monitor;
 
+		Job(String description, ProgressMonitor monitor) {
+			this.description = description;
+			this.monitor     = monitor;
+		}
+	}
+
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0))+s.substring(1);
+	}
+
+	/**
+	 * File a log is downloaded to. It is kept with its state for a resume,
+	 * files of other logs are deleted.
+	 */
+	public File getDownloadFile(int id, long time_utc) throws IOException {
+		File dir = new File(getBasePath()+DOWNLOADDIR);
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create "+dir);
+		String name = "log-"+id+"-"+time_utc+".tmp";
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File f : files) {
+				if(!f.getName().startsWith(name))
+					f.delete();
+			}
+		}
+		return new File(dir, name);
 	}
 
 
@@ -0,0 +1,397 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.mavlink.messages.lquac.msg_log_data;
+import org.mavlink.messages.lquac.msg_log_request_data;
+import org.mavlink.messages.lquac.msg_log_request_end;
+
+import com.comino.mav.control.IMAVController;
+import com.comino.msp.utils.ExecutorService;
+
+/**
+ * Downloads a log from the vehicle in windows. Received byte ranges are kept
+ * in an interval set and written at their offset into the file; holes caused
+ * by lost or reordered packets are requested again. Bytes are passed to the
+ * sink in order as soon as they are contiguous. The received ranges are saved
+ * when a download is stopped, so it can be resumed later for the same log.
+ */
+public class MAVLogDownload {
+
+	public interface ISink {
+		/** Next contiguous bytes of the log */
+		void write(byte[] data, int offset, int count);
+	}
+
+	private static final int   WINDOW         = 128 * 1024;
+	private static final float MIN_TIMEOUT_MS = 50;
+	private static final float MAX_TIMEOUT_MS = 1000;
+	private static final int   CHECK_MS       = 20;
+
+	private final IMAVController control;
+	private final File   file;
+	private final File   partFile;
+	private final int    id;
+	private final long   time_utc;
+	private final long   entry_size;
+	private long         size;
+
+	private final Ranges received = new Ranges();
+
+	private RandomAccessFile out = null;
+	private ISink sink = null;
+	private ScheduledFuture<?> checker = null;
+
+	private long delivered     = 0;
+	private long request_end   = 0;
+	private long requested_max = 0;
+	private long last_data     = 0;
+	private float gap_ms       = MAX_TIMEOUT_MS / 20;
+
+	private long bytes_received = 0;
+	private long bytes_rate     = 0;
+	private long rate_tms       = 0;
+	private float rate_kbs      = 0;
+	private int  retransmits    = 0;
+	private int  duplicates     = 0;
+
+	private byte[] packet = new byte[256];
+	private byte[] block  = new byte[8192];
+
+	public MAVLogDownload(IMAVController control, File file, int id, long size, long time_utc) {
+		this.control  = control;
+		this.file     = file;
+		this.partFile = new File(file.getPath()+".part");
+		this.id       = id;
+		this.entry_size = size;
+		this.size       = size;
+		this.time_utc   = time_utc;
+	}
+
+	/**
+	 * Starts or resumes the download. Already received bytes of the same log
+	 * are passed to the sink first.
+	 *
+	 * @return number of bytes resumed
+	 */
+	public synchronized long start(ISink sink) throws IOException {
+		this.sink = sink;
+		this.delivered = 0;
+		boolean resume = loadState();
+		out = new RandomAccessFile(file, "rw");
+		if(!resume) {
+			received.clear();
+			out.setLength(0);
+		}
+		long resumed = received.covered();
+		deliver(null, 0, 0);
+
+		rate_tms = last_data = System.currentTimeMillis();
+		requestNext();
+		checker = ExecutorService.get().scheduleAtFixedRate(() -> check(), CHECK_MS, CHECK_MS, TimeUnit.MILLISECONDS);
+		return resumed;
+	}
+
+	/**
+	 * Stops the download and keeps the received ranges for a later resume.
+	 */
+	public synchronized void stop() {
+		if(checker != null)
+			checker.cancel(false);
+		checker = null;
+		msg_log_request_end msg = new msg_log_request_end(255,1);
+		msg.target_component = 1;
+		msg.target_system = 1;
+		control.sendMAVLinkMessage(msg);
+		try {
+			if(out != null)
+				out.close();
+		} catch (IOException e) { }
+		out = null;
+		if(isComplete())
+			partFile.delete();
+		else
+			saveState();
+	}
+
+	/**
+	 * Handles a data packet of the log.
+	 *
+	 * @return true if the log is complete
+	 */
+	public synchronized boolean received(msg_log_data data) {
+		if(out == null || data.id != id)
+			return isComplete();
+
+		long ofs = data.ofs;
+		int count = data.count;
+
+		// a short packet before the end of the request marks the end of the log
+		if(count < data.data.length && ofs + count < request_end && ofs + count < size)
+			size = ofs + count;
+
+		if(count > 0 && ofs < size) {
+			count = (int)Math.min(count, size - ofs);
+			if(received.contains(ofs, ofs + count))
+				duplicates++;
+			else {
+				for(int i = 0; i < count; i++)
+					packet[i] = (byte)data.data[i];
+				try {
+					out.seek(ofs);
+					out.write(packet, 0, count);
+				} catch (IOException e) {
+					System.err.println("Log download: "+e.getMessage());
+					return false;
+				}
+				received.add(ofs, ofs + count);
+				bytes_received += count;
+				deliver(packet, ofs, count);
+			}
+		}
+		long now = System.currentTimeMillis();
+		gap_ms = gap_ms * 0.95f + (now - last_data) * 0.05f;
+		last_data = now;
+
+		if(isComplete())
+			return true;
+		if(ofs + data.count >= request_end || count == 0)
+			requestNext();
+		return false;
+	}
+
+	public synchronized boolean isComplete() {
+		return received.firstMissing(0) >= size;
+	}
+
+	public synchronized float getProgress() {
+		return size > 0 ? Math.min(1f, received.covered() / (float)size) : 0;
+	}
+
+	public float getRate_kbs() {
+		return rate_kbs;
+	}
+
+	public int getRetransmits() {
+		return retransmits;
+	}
+
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	private void check() {
+		synchronized(this) {
+			long now = System.currentTimeMillis();
+			if(now - rate_tms >= 1000) {
+				rate_kbs = (bytes_received - bytes_rate) * 1000f / (1024f * (now - rate_tms));
+				bytes_rate = bytes_received;
+				rate_tms = now;
+			}
+			// the stream stalled, e.g. the end of the request got lost
+			float timeout = Math.min(MAX_TIMEOUT_MS, Math.max(MIN_TIMEOUT_MS, gap_ms * 20));
+			if(out != null && !isComplete() && now - last_data > timeout) {
+				last_data = now;
+				requestNext();
+			}
+		}
+	}
+
+	/**
+	 * Requests the first hole, limited to the window size and the next
+	 * received range.
+	 */
+	private void requestNext() {
+		long ofs = received.firstMissing(0);
+		if(ofs >= size)
+			return;
+		long end = Math.min(Math.min(ofs + WINDOW, size), received.nextPresent(ofs));
+		if(ofs < requested_max)
+			retransmits++;
+		request_end   = end;
+		requested_max = Math.max(end, requested_max);
+
+		msg_log_request_data msg = new msg_log_request_data(255,1);
+		msg.target_component = 1;
+		msg.target_system = 1;
+		msg.id    = id;
+		msg.ofs   = ofs;
+		msg.count = end - ofs;
+		control.sendMAVLinkMessage(msg);
+	}
+
+	/**
+	 * Passes the bytes that became contiguous to the sink, directly from the
+	 * packet if it starts at the delivered offset, otherwise from the file.
+	 */
+	private void deliver(byte[] data, long ofs, int count) {
+		long contiguous = Math.min(received.firstMissing(0), size);
+		if(contiguous <= delivered || sink == null)
+			return;
+		if(data != null && ofs <= delivered && ofs + count >= contiguous) {
+			sink.write(data, (int)(delivered - ofs), (int)(contiguous - delivered));
+			delivered = contiguous;
+			return;
+		}
+		try {
+			while(delivered < contiguous) {
+				int n = (int)Math.min(block.length, contiguous - delivered);
+				out.seek(delivered);
+				out.readFully(block, 0, n);
+				sink.write(block, 0, n);
+				delivered += n;
+			}
+		} catch (IOException e) {
+			System.err.println("Log download: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Restores the received ranges of the same log, if the file still holds
+	 * all of them.
+	 */
+	private boolean loadState() {
+		if(!partFile.exists() || !file.exists())
+			return false;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(partFile))) {
+			if(in.readInt() != id || in.readLong() != entry_size || in.readLong() != time_utc)
+				return false;
+			long end = in.readLong();
+			if(end > entry_size)
+				return false;
+			received.clear();
+			int n = in.readInt();
+			for(int i = 0; i < n; i++)
+				received.add(in.readLong(), in.readLong());
+			if(received.end() > Math.min(end, file.length())) {
+				received.clear();
+				return false;
+			}
+			size = end;
+			return true;
+		} catch (IOException e) {
+			received.clear();
+			return false;
+		}
+	}
+
+	private void saveState() {
+		try (DataOutputStream o = new DataOutputStream(new FileOutputStream(partFile))) {
+			o.writeInt(id); o.writeLong(entry_size); o.writeLong(time_utc); o.writeLong(size);
+			o.writeInt(received.ranges.size());
+			for(Map.Entry<Long,Long> r : received.ranges.entrySet()) {
+				o.writeLong(r.getKey()); o.writeLong(r.getValue());
+			}
+		} catch (IOException e) {
+			System.err.println("Log download: State not saved: "+e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Set of disjoint, non-adjacent byte ranges [start,end).
+	 */
+	private static class Ranges {
+
+		final TreeMap<Long,Long> ranges = new TreeMap<Long,Long>();
+		private long covered = 0;
+
+		void clear() {
+			ranges.clear();
+			covered = 0;
+		}
+
+		void add(long start, long end) {
+			Map.Entry<Long,Long> e = ranges.floorEntry(start);
+			if(e != null && e.getValue() >= start) {
+				start = e.getKey();
+				end = Math.max(end, e.getValue());
+				covered -= e.getValue() - e.getKey();
+				ranges.remove(e.getKey());
+			}
+			e = ranges.ceilingEntry(start);
+			while(e != null && e.getKey() <= end) {
+				end = Math.max(end, e.getValue());
+				covered -= e.getValue() - e.getKey();
+				ranges.remove(e.getKey());
+				e = ranges.ceilingEntry(start);
+			}
+			ranges.put(start, end);
+			covered += end - start;
+		}
+
+		boolean contains(long start, long end) {
+			Map.Entry<Long,Long> e = ranges.floorEntry(start);
+			return e != null && e.getValue() >= end;
+		}
+
+		long firstMissing(long from) {
+			Map.Entry<Long,Long> e = ranges.floorEntry(from);
+			return e != null && e.getValue() > from ? e.getValue() : from;
+		}
+
+		long nextPresent(long from) {
+			Long k = ranges.higherKey(from);
+			return k == null ? Long.MAX_VALUE : k;
+		}
+
+		long covered() {
+			return covered;
+		}
+
+		/**
+		 * @return end of the last range, 0 if empty
+		 */
+		long end() {
+			return ranges.isEmpty() ? 0 : ranges.lastEntry().getValue();
+		}
+	}
+}
@@ -0,0 +1,457 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.flight.model.store.EventTrack;
+import com.comino.flight.model.store.KeyFigureColumns;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+
+/**
+ * Binary columnar MAVGCL model file (.mgc version 4), little endian:
+ *
+ * <pre>
+ * header      magic, version, rows, interval_us, columns, rows per chunk,
+ *             offsets of dictionary, chunk table and events, file length,
+ *             offset of the envelopes
+ * dictionary  per column: key figure hash, key (UTF-8, short length)
+ * chunk data  per chunk: deflated block of tms and the columns with values
+ * chunk table per chunk: offset, compressed length, rows, first tms,
+ *             bit mask of the columns with values
+ * envelopes   per chunk and column with values: min and max
+ * events      length, compressed length, deflated log messages and states:
+ *             count, per event tms and JSON
+ * </pre>
+ *
+ * Chunks have the chunk size of the store and are compressed independently,
+ * so {@link MGCReader} decompresses only the chunks of a requested time range.
+ * The envelopes let charts decimate the whole file without reading chunks.
+ *
+ * Legacy model files are JSON arrays of rows, see {@link AnalysisDataModelAdapter}.
+ * They are streamed row by row through buffered I/O, so neither the JSON
+ * tree nor a list of row objects is built in memory.
+ *
+ * Progress is reported to an optional monitor, which may also cancel the
+ * transfer.
+ */
+public class MGCFile {
+
+	public  static final int VERSION      = 4;
+
+	static final int MAGIC                = 0x0043474D | 0x89 << 24;   // "MGC", 0x89
+	static final int HEADER_SIZE          = 64;
+	private static final int CHUNK_SIZE   = AnalysisDataStore.CHUNK_SIZE;
+
+	static final ByteOrder ORDER          = ByteOrder.LITTLE_ENDIAN;
+
+	private static final int BUFFER_SIZE   = 64 * 1024;
+	private static final int PROGRESS_MASK = 1023;
+
+	private static final int LEVEL         = Deflater.DEFAULT_COMPRESSION;
+
+	private static final Gson gson = new Gson();
+
+	private ProgressMonitor monitor = new ProgressMonitor();
+
+
+	public MGCFile() {
+		super();
+	}
+
+	public MGCFile(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+
+	/**
+	 * @return true if the file is a binary model file, false for legacy JSON
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		return getVersion(file) > 0;
+	}
+
+	/**
+	 * @return version of a binary model file, -1 for other files
+	 */
+	static int getVersion(File file) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			if(f.length() < HEADER_SIZE || Integer.reverseBytes(f.readInt()) != MAGIC)
+				return -1;
+			return Integer.reverseBytes(f.readInt());
+		}
+	}
+
+
+	/**
+	 * Writes the list as binary model file. The chunks are encoded and
+	 * compressed in parallel and written in order.
+	 */
+	public void write(AnalysisDataStore list, File file) throws IOException {
+		KeyFigureColumns columns = KeyFigureColumns.getInstance();
+		AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+		int rows = list.size();
+		int count = columns.getCount();
+		int chunks = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		Deque<Future<Packed>> pending = new ArrayDeque<Future<Packed>>();
+
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+
+			// dictionary
+			ByteBuffer b = allocate(count * 64);
+			for(int c = 0; c < count; c++) {
+				KeyFigureMetaData kf = meta.getKeyFigureMap().get(columns.getHash(c));
+				byte[] key = kf != null ? kf.getKey().getBytes(StandardCharsets.UTF_8) : new byte[0];
+				if(b.remaining() < 6 + key.length)
+					b = grow(b, 6 + key.length);
+				b.putInt(columns.getHash(c)).putShort((short)key.length).put(key);
+			}
+			long dictionary = HEADER_SIZE;
+			long position = write(channel, b, dictionary);
+
+			// chunk data
+			ByteBuffer table = allocate(chunks * getTableEntrySize(count));
+			ByteBuffer envelopes = allocate(64 * 1024);
+			int ahead = 2 * pool.getParallelism();
+			int next = 0;
+			for(int k = 0; k < chunks; k++) {
+				for(; next < chunks && next < k + ahead; next++) {
+					int from = next * CHUNK_SIZE;
+					pending.add(pool.submit(() -> encode(list, from, Math.min(CHUNK_SIZE, rows - from), count)));
+				}
+				Packed chunk = await(pending.poll());
+				table.putLong(position).putInt(chunk.data.position()).putInt(chunk.rows).putLong(chunk.first);
+				for(long word : chunk.mask)
+					table.putLong(word);
+				if(envelopes.remaining() < 4 * chunk.envelope.length)
+					envelopes = grow(envelopes, 4 * chunk.envelope.length);
+				for(float value : chunk.envelope)
+					envelopes.putFloat(value);
+				position = write(channel, chunk.data, position);
+				monitor.update((k + 1f) / chunks);
+			}
+
+			// chunk table
+			long chunkTable = position;
+			position = write(channel, table, position);
+			long envelope = position;
+			position = write(channel, envelopes, position);
+
+			// events
+			long events = position;
+			b = allocate(64 * 1024);
+			b = putEvents(b, list.getMessages());
+			b = putEvents(b, list.getStates());
+			ByteBuffer packed = deflate(b.array(), b.position());
+			position = write(channel, allocate(8).putInt(b.position()).putInt(packed.position()), position);
+			position = write(channel, packed, position);
+			out.setLength(position);
+
+			b = allocate(HEADER_SIZE);
+			b.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(list.getInterval_us())
+			 .putInt(count).putInt(CHUNK_SIZE)
+			 .putLong(dictionary).putLong(chunkTable).putLong(events).putLong(position)
+			 .putLong(envelope);
+			b.position(HEADER_SIZE);
+			write(channel, b, 0);
+		} finally {
+			pending.forEach(f -> f.cancel(true));
+		}
+	}
+
+	/**
+	 * Reads a binary model file into the list, which is cleared before.
+	 * Chunks are decompressed in parallel.
+	 */
+	public void read(File file, AnalysisDataStore list) throws IOException {
+		try (MGCReader reader = new MGCReader(file)) {
+			reader.read(list, monitor);
+		}
+	}
+
+	/**
+	 * Opens a model file as source of the list, which is cleared before. Of a
+	 * compressed binary file only the chunk table and the events are read; rows
+	 * are paged in when accessed. Legacy JSON files are read completely.
+	 */
+	public void open(File file, AnalysisDataStore list) throws IOException {
+		int version = getVersion(file);
+		if(version < 0)
+			readJSON(file, list);
+		else {
+			MGCReader reader = new MGCReader(file);
+			try {
+				list.setSource(reader);
+				list.setInterval_us(reader.getInterval_us());
+				reader.readEvents(list);
+			} catch(IOException | RuntimeException e) {
+				list.clear();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Reads a legacy JSON model file row by row into the list, which is
+	 * cleared before.
+	 */
+	public void readJSON(File file, AnalysisDataStore list) throws IOException {
+		AnalysisDataModelAdapter adapter = new AnalysisDataModelAdapter();
+		AnalysisDataModel row = new AnalysisDataModel();
+
+		list.clear();
+		try (FileInputStream stream = new FileInputStream(file);
+			 JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), BUFFER_SIZE))) {
+			FileChannel channel = stream.getChannel();
+			long size = Math.max(1, channel.size());
+			in.setLenient(true);
+			in.beginArray();
+			while(in.hasNext()) {
+				adapter.read(in, row);
+				list.append(row.tms, row);
+				if((list.size() & PROGRESS_MASK) == 0)
+					monitor.update((float)channel.position() / size);
+			}
+			in.endArray();
+		}
+		list.setInterval_us(list.estimateInterval_us());
+	}
+
+	/**
+	 * Writes the list row by row as legacy JSON model file.
+	 */
+	public void writeJSON(AnalysisDataStore list, File file) throws IOException {
+		AnalysisDataModelAdapter adapter = new AnalysisDataModelAdapter();
+
+		try (JsonWriter out = new JsonWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE))) {
+			out.setLenient(true);   // NaN and infinite values
+			out.beginArray();
+			int rows = list.size();
+			for(int i = 0; i < rows; i++) {
+				adapter.write(out, list.get(i));
+				if((i & PROGRESS_MASK) == 0)
+					monitor.update((float)i / rows);
+			}
+			out.endArray();
+		}
+	}
+
+	static ByteBuffer putEvents(ByteBuffer b, EventTrack<?> events) {
+		EventTrack.Snapshot<?> track = events.snapshot();
+		int n = track.size();
+		b = b.remaining() < 4 ? grow(b, 4) : b;
+		b.putInt(n);
+		for(int i = 0; i < n; i++) {
+			byte[] json = gson.toJson(track.get(i)).getBytes(StandardCharsets.UTF_8);
+			if(b.remaining() < 12 + json.length)
+				b = grow(b, 12 + json.length);
+			b.putLong(track.getTms(i)).putInt(json.length).put(json);
+		}
+		return b;
+	}
+
+	static <T> void getEvents(ByteBuffer b, EventTrack<T> track, Class<T> type) {
+		int n = b.getInt();
+		for(int i = 0; i < n; i++) {
+			long tms = b.getLong();
+			byte[] json = new byte[b.getInt()];
+			b.get(json);
+			track.add(tms, gson.fromJson(new String(json, StandardCharsets.UTF_8), type));
+		}
+	}
+
+	static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ORDER);
+	}
+
+	private static ByteBuffer grow(ByteBuffer b, int needed) {
+		ByteBuffer g = allocate(Math.max(b.capacity() * 2, b.position() + needed));
+		b.flip();
+		return g.put(b);
+	}
+
+	/**
+	 * Writes the buffer up to its position at the file position, padded to 8 bytes.
+	 *
+	 * @return file position after it
+	 */
+	private static long write(FileChannel channel, ByteBuffer b, long position) throws IOException {
+		b.flip();
+		while(b.hasRemaining())
+			position += channel.write(b, position);
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * Size of a chunk table entry: offset, compressed length, rows, first tms
+	 * and the bit mask of the columns with values.
+	 */
+	static int getTableEntrySize(int columns) {
+		return 24 + 8 * ((columns + 63) / 64);
+	}
+
+	/**
+	 * Chunk block before compression: tms as differences to the previous row,
+	 * then the columns with values, each as four byte planes of the float bits
+	 * xor the bits of the previous row. Slowly changing values turn into long
+	 * runs of zero bytes this way. See {@link MGCReader} for the inverse.
+	 * The min and max of the columns with values are kept for the envelopes.
+	 */
+	private static Packed encode(AnalysisDataStore list, int from, int n, int count) {
+		long[]  tms    = new long[n];
+		float[] values = new float[n];
+		long[]  mask   = new long[(count + 63) / 64];
+		float[] envelope = new float[2 * count];
+		int     present  = 0;
+
+		ByteBuffer b = allocate(8 * n + 4 * n * count);
+		byte[] a = b.array();
+
+		list.getTms(from, tms, n);
+		long previous = 0;
+		for(int i = 0; i < n; i++) {
+			b.putLong(tms[i] - previous);
+			previous = tms[i];
+		}
+
+		for(int c = 0; c < count; c++) {
+			if(!list.getValues(from, c, values, n))
+				continue;
+			mask[c >> 6] |= 1L << (c & 63);
+			float min = values[0], max = values[0];
+			int p = b.position(); int last = 0;
+			for(int i = 0; i < n; i++) {
+				if(values[i] < min) min = values[i];
+				if(values[i] > max) max = values[i];
+				int bits = Float.floatToRawIntBits(values[i]);
+				int x = bits ^ last; last = bits;
+				a[p + i]         = (byte)x;
+				a[p + n + i]     = (byte)(x >>> 8);
+				a[p + 2 * n + i] = (byte)(x >>> 16);
+				a[p + 3 * n + i] = (byte)(x >>> 24);
+			}
+			b.position(p + 4 * n);
+			envelope[present++] = min;
+			envelope[present++] = max;
+		}
+		return new Packed(deflate(a, b.position()), n, tms[0], mask, Arrays.copyOf(envelope, present));
+	}
+
+	/**
+	 * @return compressed data up to the position of the buffer
+	 */
+	private static ByteBuffer deflate(byte[] data, int length) {
+		Deflater deflater = new Deflater(LEVEL);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] out = new byte[Math.max(64, length / 4)];
+			int n = 0;
+			while(!deflater.finished()) {
+				if(n == out.length)
+					out = Arrays.copyOf(out, out.length * 2);
+				n += deflater.deflate(out, n, out.length - n);
+			}
+			ByteBuffer b = ByteBuffer.wrap(out).order(ORDER);
+			b.position(n);
+			return b;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static class Packed {
+		final ByteBuffer data;
+		final int        rows;
+		final long       first;
+		final long[]     mask;
+		final float[]    envelope;
+
+		Packed(ByteBuffer data, int rows, long first, long[] mask, float[] envelope) {
+			this.data     = data;
+			this.rows     = rows;
+			this.first    = first;
+			this.mask     = mask;
+			this.envelope = envelope;
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.flight.model.store.ChunkSource;
+import com.comino.flight.model.store.KeyFigureColumns;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+
+/**
+ * Random access to the chunks of a binary model file. Only
+ * the header, dictionary, chunk table and envelopes are read when opened;
+ * chunks are read and decompressed on request. Ranges of chunks are decompressed in parallel.
+ * Chunks may be read concurrently.
+ *
+ * As chunk source, the reader lets a store page in the rows of the file on
+ * access instead of reading them completely.
+ */
+public class MGCReader implements ChunkSource {
+
+	private final File        file;
+	private final FileChannel channel;
+
+	private final int  rows;
+	private final int  interval_us;
+	private final int  count;
+	private final int  words;
+	private final long events;
+	private final long length;
+
+	private final int[]  map;
+	private final long[] offsets;
+	private final int[]  sizes;
+	private final int[]  chunkRows;
+	private final long[] firstTms;
+	private final long[] masks;
+
+	// min and max of the columns with values, from envelopeStart[chunk] on
+	private final float[] envelopes;
+	private final int[]   envelopeStart;
+
+
+	public MGCReader(File file) throws IOException {
+		this.file    = file;
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+
+		try {
+			ByteBuffer h = read(0, MGCFile.HEADER_SIZE);
+			if(h.getInt() != MGCFile.MAGIC)
+				throw new IOException(file.getName()+" is no binary model file");
+			int version = h.getInt();
+			if(version != MGCFile.VERSION)
+				throw new IOException(file.getName()+": version "+version+" not supported");
+			rows            = h.getInt();
+			interval_us     = h.getInt();
+			count           = h.getInt();
+			h.getInt();     // rows per chunk
+			long dictionary = h.getLong();
+			long chunkTable = h.getLong();
+			events          = h.getLong();
+			length          = h.getLong();
+			long envelope   = h.getLong();
+			if(length != channel.size() || envelope < chunkTable || events < envelope)
+				throw new IOException(file.getName()+" is corrupted or incomplete");
+
+			// dictionary: file columns to store columns
+			KeyFigureColumns columns = KeyFigureColumns.getInstance();
+			map = new int[count];
+			ByteBuffer d = read(dictionary, (int)(chunkTable - dictionary));
+			for(int c = 0; c < count; c++) {
+				map[c] = columns.getColumn(d.getInt());
+				int key = d.getShort();
+				d.position(d.position() + key);
+			}
+
+			int entry  = MGCFile.getTableEntrySize(count);
+			int chunks = (int)((envelope - chunkTable) / entry);
+			words      = (count + 63) / 64;
+			offsets    = new long[chunks];
+			sizes      = new int[chunks];
+			chunkRows  = new int[chunks];
+			firstTms   = new long[chunks];
+			masks      = new long[chunks * words];
+			ByteBuffer t = read(chunkTable, chunks * entry);
+			for(int k = 0; k < chunks; k++) {
+				offsets[k]   = t.getLong();
+				sizes[k]     = t.getInt();
+				chunkRows[k] = t.getInt();
+				firstTms[k]  = t.getLong();
+				for(int w = 0; w < words; w++)
+					masks[k * words + w] = t.getLong();
+			}
+
+			envelopeStart = new int[chunks];
+			int values = 0;
+			for(int k = 0; k < chunks; k++) {
+				envelopeStart[k] = values;
+				values += 2 * getPresent(k);
+			}
+			envelopes = new float[values];
+			read(envelope, 4 * values).asFloatBuffer().get(envelopes);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	public int getInterval_us() {
+		return interval_us;
+	}
+
+	public int getChunkCount() {
+		return offsets.length;
+	}
+
+	public int getChunkRows(int chunk) {
+		return chunkRows[chunk];
+	}
+
+	@Override
+	public long getFirstTms(int chunk) {
+		return firstTms[chunk];
+	}
+
+	/**
+	 * Envelope of the chunk from the file, so decimated charts need not read
+	 * the chunk.
+	 *
+	 * @return min and max by store column
+	 */
+	@Override
+	public float[][] getEnvelope(int chunk) {
+		float[][] envelope = new float[2][KeyFigureColumns.getInstance().getCount()];
+		int p = envelopeStart[chunk];
+		for(int c = 0; c < count; c++) {
+			if((masks[chunk * words + (c >> 6)] & 1L << (c & 63)) == 0)
+				continue;
+			envelope[0][map[c]] = envelopes[p++];
+			envelope[1][map[c]] = envelopes[p++];
+		}
+		return envelope;
+	}
+
+	/**
+	 * @return chunk containing the time, 0 before the first row
+	 */
+	public int findChunk(long tms) {
+		int k = Arrays.binarySearch(firstTms, tms);
+		return k >= 0 ? k : Math.max(0, -k - 2);
+	}
+
+	/**
+	 * Reads the whole file into the list, which is cleared before.
+	 */
+	public void read(AnalysisDataStore list, ProgressMonitor monitor) throws IOException {
+		list.clear();
+		list.setInterval_us(interval_us);
+		read(0, getChunkCount(), list, monitor);
+		readEvents(list);
+	}
+
+	/**
+	 * Appends the rows of the chunks from..to-1 to the list. The chunks are
+	 * decompressed in parallel, a few chunks ahead of the one appended.
+	 */
+	public void read(int from, int to, AnalysisDataStore list, ProgressMonitor monitor) throws IOException {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+		int ahead = 2 * pool.getParallelism();
+		int next = from;
+		try {
+			for(int k = from; k < to; k++) {
+				for(; next < to && next < k + ahead; next++) {
+					int chunk = next;
+					pending.add(pool.submit(() -> readChunk(chunk)));
+				}
+				MGCFile.await(pending.poll()).appendTo(list);
+				monitor.update((k + 1f - from) / (to - from));
+			}
+		} finally {
+			pending.forEach(f -> f.cancel(true));
+		}
+	}
+
+	/**
+	 * Reads and decompresses a single chunk.
+	 */
+	public Block readChunk(int chunk) throws IOException {
+		long[] tms = new long[Math.max(AnalysisDataStore.CHUNK_SIZE, chunkRows[chunk])];
+		return new Block(chunkRows[chunk], tms, readChunk(chunk, tms));
+	}
+
+	/**
+	 * Reads and decompresses a single chunk. This is the inverse of the encoding
+	 * by {@link MGCFile}.
+	 */
+	@Override
+	public float[][] readChunk(int chunk, long[] tms) throws IOException {
+		int n = chunkRows[chunk];
+		if(n > tms.length)
+			throw new IOException(file.getName()+": chunk "+chunk+" exceeds "+tms.length+" rows");
+		int present = getPresent(chunk);
+
+		byte[] data = inflate(read(offsets[chunk], sizes[chunk]), 8 * n + 4 * n * present, chunk);
+		ByteBuffer b = ByteBuffer.wrap(data).order(MGCFile.ORDER);
+
+		float[][] columns = new float[KeyFigureColumns.getInstance().getCount()][];
+		long t = 0;
+		for(int i = 0; i < n; i++)
+			tms[i] = t += b.getLong();
+
+		int p = b.position();
+		for(int c = 0; c < count; c++) {
+			if((masks[chunk * words + (c >> 6)] & 1L << (c & 63)) == 0)
+				continue;
+			float[] values = columns[map[c]] = new float[tms.length];
+			int last = 0;
+			for(int i = 0; i < n; i++) {
+				int x = (data[p + i] & 0xFF) | (data[p + n + i] & 0xFF) << 8
+						| (data[p + 2 * n + i] & 0xFF) << 16 | (data[p + 3 * n + i] & 0xFF) << 24;
+				last ^= x;
+				values[i] = Float.intBitsToFloat(last);
+			}
+			p += 4 * n;
+		}
+		return columns;
+	}
+
+	/**
+	 * Adds the log messages and states to the list.
+	 */
+	public void readEvents(AnalysisDataStore list) throws IOException {
+		ByteBuffer h = read(events, 8);
+		int size = h.getInt();
+		ByteBuffer e = ByteBuffer.wrap(inflate(read(events + 8, h.getInt()), size, -1)).order(MGCFile.ORDER);
+		MGCFile.getEvents(e, list.getMessages(), LogMessage.class);
+		MGCFile.getEvents(e, list.getStates(), Status.class);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// number of columns with values
+	private int getPresent(int chunk) {
+		int present = 0;
+		for(int w = 0; w < words; w++)
+			present += Long.bitCount(masks[chunk * words + w]);
+		return present;
+	}
+
+	private ByteBuffer read(long position, int size) throws IOException {
+		if(position < 0 || size < 0)
+			throw new IOException(file.getName()+" is corrupted");
+		ByteBuffer b = MGCFile.allocate(size);
+		while(b.hasRemaining()) {
+			if(channel.read(b, position + b.position()) < 0)
+				throw new EOFException(file.getName());
+		}
+		b.flip();
+		return b;
+	}
+
+	private byte[] inflate(ByteBuffer packed, int size, int chunk) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(packed.array(), 0, packed.limit());
+			byte[] data = new byte[size];
+			int n = 0;
+			while(n < size) {
+				int r = inflater.inflate(data, n, size - n);
+				if(r == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				n += r;
+			}
+			if(n < size)
+				throw new IOException(file.getName()+": "+(chunk < 0 ? "events" : "chunk "+chunk)+" truncated");
+			return data;
+		} catch(DataFormatException e) {
+			throw new IOException(file.getName()+": "+(chunk < 0 ? "events" : "chunk "+chunk)+" corrupted");
+		} finally {
+			inflater.end();
+		}
+	}
+
+
+	/**
+	 * Decompressed rows of a chunk. Values are indexed by store column and
+	 * null for columns without values; arrays may be longer than the rows.
+	 */
+	public static class Block {
+		public final int       rows;
+		public final long[]    tms;
+		public final float[][] values;
+
+		Block(int rows, long[] tms, float[][] values) {
+			this.rows   = rows;
+			this.tms    = tms;
+			this.values = values;
+		}
+
+		public void appendTo(AnalysisDataStore list) {
+			FloatBuffer[] columns = new FloatBuffer[values.length];
+			for(int c = 0; c < values.length; c++)
+				if(values[c] != null)
+					columns[c] = FloatBuffer.wrap(values[c]);
+			list.append(rows, LongBuffer.wrap(tms), columns);
+		}
+	}
+}
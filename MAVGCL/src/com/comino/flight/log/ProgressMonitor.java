@@ -0,0 +1,151 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Progress and cancellation of a file import or export. The work is divided
+ * into stages; each stage reports its own progress (0..1), which is mapped to
+ * its share of the overall progress published to the listener.
+ */
+public class ProgressMonitor {
+
+	public enum Stage {
+		READING(1), DECODING(4), RESAMPLING(3), INDEXING(1), WRITING(1);
+
+		private final float weight;
+
+		private Stage(float weight) {
+			this.weight = weight;
+		}
+	}
+
+	private static final float MIN_STEP = 0.01f;
+
+	private final DoubleConsumer progress;
+	private final Stage[]        stages;
+
+	private volatile boolean cancelled = false;
+	private volatile Stage   stage     = null;
+
+	private float base     = 0;
+	private float share    = 0;
+	private float reported = -1;
+
+
+	/**
+	 * @param progress receives the overall progress, -1 when done; may be null.
+	 *                 It is called on the thread doing the work.
+	 * @param stages   stages of the task in the order they are passed
+	 */
+	public ProgressMonitor(DoubleConsumer progress, Stage... stages) {
+		this.progress = progress;
+		this.stages   = stages;
+	}
+
+	/**
+	 * Monitor without progress, only cancellation.
+	 */
+	public ProgressMonitor() {
+		this(null);
+	}
+
+	/**
+	 * Enters a stage. Stages not declared for the task are passed silently.
+	 */
+	public void stage(Stage next) {
+		checkCancelled();
+		float total = 0, before = 0, weight = 0;
+		for(Stage s : stages) {
+			if(s == next)
+				weight = s.weight;
+			else if(weight == 0)
+				before += s.weight;
+			total += s.weight;
+		}
+		stage = next;
+		if(weight == 0)
+			return;
+		base  = before / total;
+		share = weight / total;
+		publish(base);
+	}
+
+	public Stage getStage() {
+		return stage;
+	}
+
+	/**
+	 * Progress of the current stage. Throws a CancellationException if the
+	 * task has been cancelled, so sequential loops need no separate check.
+	 */
+	public void update(float fraction) {
+		checkCancelled();
+		if(share > 0)
+			publish(base + share * Math.min(1, Math.max(0, fraction)));
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void checkCancelled() {
+		if(cancelled)
+			throw new CancellationException();
+	}
+
+	/**
+	 * Hides the progress.
+	 */
+	public void done() {
+		stage    = null;
+		reported = -1;
+		if(progress != null)
+			progress.accept(-1);
+	}
+
+	private void publish(float value) {
+		if(progress == null || (reported >= 0 && value - reported < MIN_STEP && value < 1))
+			return;
+		reported = value;
+		progress.accept(value);
+	}
+}
@@ -0,0 +1,503 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.flight.model.store.KeyFigureColumns;
+
+/**
+ * Reduces the samples of a log to rows at the interval of the list in a single
+ * pass. A row is appended at the first sample after each slot boundary; the
+ * value of a key figure in the row is chosen by its resample policy:
+ *
+ * last:   last sample (default)
+ * linear: interpolated at the row time between the samples before and after,
+ *         rows are held back until the next sample arrives
+ * mean:   mean of the samples since the previous row
+ * minmax: minimum or maximum of the samples since the previous row, whichever
+ *         is further away from their mean, so that peaks are kept
+ *
+ * Without samples since the previous row, the last sample is kept. Rows are
+ * appended once with their final values; flush() appends the rows still held
+ * back at the end of the log.
+ */
+public class Resampler {
+
+	private static final long NONE = Long.MIN_VALUE;
+	private static final int  MAX_HELD = 4096;
+
+	private final AnalysisDataStore rows;
+	private final int interval_us;
+
+	private final AnalysisDataModel model = new AnalysisDataModel();
+	private final AnalysisDataModel out   = new AnalysisDataModel();
+	private final float[] hold;
+
+	private final int   count;
+	private final int[] policy;
+	private final int[] resampled;
+	private final int[] linear;
+
+	private final int[] assigned;
+
+	// linear
+	private final long[]    time;
+	private final float[]   last;
+	private final int[]     pending;
+	private final long[]    firstTime;
+	private final float[]   firstValue;
+	private final boolean[] stepped;
+	private final int[]     step;
+	private int steps = 0;
+
+	// rows waiting for the next sample of a linear key figure
+	private long[]              heldTms  = new long[16];
+	private AnalysisDataModel[] heldRows = new AnalysisDataModel[16];
+	private int heldFirst = 0;
+	private int held      = 0;
+
+	// mean, minmax: samples since the previous row and those of the first rows
+	// up to the bound, which append() merges into the rows before
+	private final Accumulator acc;
+	private final List<Accumulator> head = new ArrayList<Accumulator>();
+	private long bound = NONE;
+
+	private long tms_slot = 0;
+
+	public Resampler(AnalysisDataStore rows, AnalysisDataModelMetaData meta) {
+		this.rows        = rows;
+		this.interval_us = rows.getInterval_us();
+
+		List<Integer> columns = new ArrayList<Integer>();
+		List<Integer> interpolated = new ArrayList<Integer>();
+		for(KeyFigureMetaData kf : meta.getKeyFigures())
+			kf.getColumn();
+		this.count  = KeyFigureColumns.getInstance().getCount();
+		this.policy = new int[count];
+		for(KeyFigureMetaData kf : meta.getKeyFigures()) {
+			policy[kf.getColumn()] = kf.getResample();
+			if(kf.getResample() != KeyFigureMetaData.RESAMPLE_LAST)
+				columns.add(kf.getColumn());
+			if(kf.getResample() == KeyFigureMetaData.RESAMPLE_LINEAR)
+				interpolated.add(kf.getColumn());
+		}
+		this.resampled = new int[columns.size()];
+		for(int i = 0; i < resampled.length; i++)
+			resampled[i] = columns.get(i);
+		this.linear = new int[interpolated.size()];
+		for(int i = 0; i < linear.length; i++)
+			linear[i] = interpolated.get(i);
+
+		this.hold       = new float[count];
+		this.assigned   = new int[count];
+		this.time       = new long[count];
+		this.last       = new float[count];
+		this.pending    = new int[count];
+		this.firstTime  = new long[count];
+		this.firstValue = new float[count];
+		this.stepped    = new boolean[count];
+		this.step       = new int[count];
+		Arrays.fill(assigned, -1);
+		Arrays.fill(time, NONE);
+		Arrays.fill(pending, -1);
+
+		this.acc = new Accumulator(count);
+	}
+
+	/**
+	 * Keeps the samples of the rows up to the slot of tms and of the row after
+	 * them, so that append() merges this part exactly with the rows of a
+	 * resampler whose samples are all at or before tms, e.g. the latest
+	 * timestamp of the log before a segment. Otherwise only those of the first
+	 * row are kept.
+	 */
+	public void setBound(long tms) {
+		this.bound = nextSlot(tms);
+	}
+
+	/**
+	 * Sample of a key figure column, taken at the time of the next update.
+	 */
+	public void set(int column, float value) {
+		if(column < 0 || column >= count)
+			return;
+		model.setColumnValue(column, value);
+		if(assigned[column] < 0)
+			assigned[column] = size();
+		switch(policy[column]) {
+		case KeyFigureMetaData.RESAMPLE_LAST:
+			break;
+		case KeyFigureMetaData.RESAMPLE_LINEAR:
+			if(!stepped[column]) {
+				stepped[column] = true;
+				step[steps++] = column;
+			}
+			break;
+		default:
+			acc.add(column, value);
+		}
+	}
+
+	/**
+	 * All samples since the last update were taken at tms. Appends a row if
+	 * tms is behind the current slot.
+	 */
+	public void update(long tms) {
+		for(int i = 0; i < steps; i++) {
+			int c = step[i];
+			float v = model.getColumnValue(c);
+			stepped[c] = false;
+			if(time[c] == NONE) {
+				firstTime[c]  = tms;
+				firstValue[c] = v;
+			} else
+				interpolate(c, pending[c], time[c], last[c], tms, v);
+			time[c]    = tms;
+			last[c]    = v;
+			pending[c] = -1;
+		}
+		steps = 0;
+
+		if(tms <= tms_slot) {
+			release();
+			return;
+		}
+
+		int row = size();
+		Accumulator samples = null;
+		if(row == head.size() && (row == 0 || getTms(row - 1) <= bound)) {
+			samples = new Accumulator(count);
+			head.add(samples);
+		}
+		for(int c : resampled) {
+			if(policy[c] == KeyFigureMetaData.RESAMPLE_LINEAR) {
+				if(pending[c] < 0 && time[c] != NONE)
+					pending[c] = row;
+				continue;
+			}
+			if(samples != null)
+				samples.set(c, acc);
+			hold[c] = model.getColumnValue(c);
+			model.setColumnValue(c, acc.get(c, policy[c], hold[c]));
+			acc.reset(c);
+		}
+		add(tms, model);
+		for(int c : resampled) {
+			if(policy[c] != KeyFigureMetaData.RESAMPLE_LINEAR)
+				model.setColumnValue(c, hold[c]);
+		}
+		tms_slot = nextSlot(tms);
+		release();
+	}
+
+	/**
+	 * Appends the rows held back for linear key figures without a later sample,
+	 * which keep the last sample. Called at the end of the log.
+	 */
+	public void flush() {
+		for(int c : linear)
+			pending[c] = -1;
+		release();
+	}
+
+	/**
+	 * Appends the rows of a part of the log resampled on its own (e.g. a
+	 * segment decoded in parallel) as if its samples had been passed to this
+	 * resampler. Rows of the part up to the current slot are dropped and their
+	 * samples go into the next row, which is exact if the bound of the part is
+	 * not before the last sample of this resampler. Values of key figures
+	 * without samples in the part yet are taken from the state of this resampler.
+	 */
+	public void append(Resampler part) {
+		int start  = size();
+		int offset = -1;
+
+		for(int c : linear) {
+			if(part.time[c] != NONE) {
+				interpolate(c, pending[c], time[c], last[c], part.firstTime[c], part.firstValue[c]);
+				pending[c] = -1;
+			}
+		}
+		release();
+
+		for(int r = 0; r < part.size(); r++) {
+			long tms = part.getTms(r);
+			if(tms <= tms_slot) {
+				for(int c : resampled)
+					part.accumulate(r, c, acc);
+				continue;
+			}
+			boolean first = offset < 0;
+			if(first) {
+				offset = start - r;
+				// rows waiting for a later sample are held back from here on
+				for(int c : linear) {
+					if(part.time[c] != NONE)
+						pending[c] = part.pending[c] < 0 ? -1 : Math.max(part.pending[c] + offset, start);
+					else if(pending[c] < 0 && time[c] != NONE)
+						pending[c] = start;
+				}
+			}
+
+			for(int c = 0; c < count; c++) {
+				if(part.assigned[c] < 0 || r < part.assigned[c])
+					out.setColumnValue(c, model.getColumnValue(c));
+				else
+					out.setColumnValue(c, part.getValue(r, c));
+			}
+
+			for(int c : resampled) {
+				if(policy[c] == KeyFigureMetaData.RESAMPLE_LINEAR) {
+					if(part.assigned[c] >= 0 && r < part.assigned[c] && time[c] != NONE)
+						out.setColumnValue(c, interpolate(time[c], last[c], part.firstTime[c], part.firstValue[c], tms));
+					continue;
+				}
+				if(first) {
+					part.accumulate(r, c, acc);
+					out.setColumnValue(c, acc.get(c, policy[c], model.getColumnValue(c)));
+					acc.reset(c);
+				}
+			}
+			add(tms, out);
+			tms_slot = nextSlot(tms);
+		}
+
+		for(int c = 0; c < count; c++) {
+			if(part.assigned[c] < 0)
+				continue;
+			model.setColumnValue(c, part.model.getColumnValue(c));
+			if(assigned[c] < 0)
+				assigned[c] = offset < 0 ? size() : Math.max(0, part.assigned[c] + offset);
+		}
+
+		for(int c : resampled) {
+			if(policy[c] == KeyFigureMetaData.RESAMPLE_LINEAR) {
+				if(part.time[c] != NONE) {
+					time[c] = part.time[c];
+					last[c] = part.last[c];
+				}
+				continue;
+			}
+			acc.add(c, part.acc);
+		}
+		release();
+	}
+
+	/**
+	 * @return number of rows including those held back
+	 */
+	private int size() {
+		return rows.size() + held;
+	}
+
+	private long getTms(int r) {
+		int h = r - rows.size();
+		return h < 0 ? rows.getTms(r) : heldTms[slot(h)];
+	}
+
+	private float getValue(int r, int c) {
+		int h = r - rows.size();
+		return h < 0 ? rows.getValue(r, c) : heldRows[slot(h)].getColumnValue(c);
+	}
+
+	/**
+	 * Appends the row or holds it back while a linear key figure waits for its
+	 * next sample.
+	 */
+	private void add(long tms, AnalysisDataModel m) {
+		if(held == 0 && !waiting(rows.size())) {
+			rows.append(tms, m);
+			return;
+		}
+		if(held == heldTms.length)
+			grow();
+		int s = slot(held);
+		if(heldRows[s] == null)
+			heldRows[s] = new AnalysisDataModel();
+		for(int c = 0; c < count; c++)
+			heldRows[s].setColumnValue(c, m.getColumnValue(c));
+		heldTms[s] = tms;
+		held++;
+	}
+
+	/**
+	 * @return true if a linear key figure waits for a later sample at the row
+	 */
+	private boolean waiting(int row) {
+		for(int c : linear) {
+			if(pending[c] >= 0 && pending[c] <= row)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Appends the held rows before the first one still waiting. If too many rows
+	 * are held, the oldest are appended with the last sample.
+	 */
+	private void release() {
+		int limit = size();
+		for(int c : linear) {
+			if(pending[c] >= 0)
+				limit = Math.min(limit, pending[c]);
+		}
+		limit = Math.max(limit, size() - MAX_HELD);
+		while(held > 0 && rows.size() < limit) {
+			int s = slot(0);
+			rows.append(heldTms[s], heldRows[s]);
+			heldFirst = (heldFirst + 1) & (heldTms.length - 1);
+			held--;
+		}
+		for(int c : linear) {
+			if(pending[c] >= 0 && pending[c] < rows.size())
+				pending[c] = held > 0 ? rows.size() : -1;
+		}
+	}
+
+	private int slot(int h) {
+		return (heldFirst + h) & (heldTms.length - 1);
+	}
+
+	private void grow() {
+		long[] t = new long[heldTms.length * 2];
+		AnalysisDataModel[] m = new AnalysisDataModel[heldTms.length * 2];
+		for(int h = 0; h < held; h++) {
+			t[h] = heldTms[slot(h)];
+			m[h] = heldRows[slot(h)];
+		}
+		heldTms   = t;
+		heldRows  = m;
+		heldFirst = 0;
+	}
+
+	/**
+	 * @return start of the next slot after tms
+	 */
+	private long nextSlot(long tms) {
+		return (tms + interval_us - 1) / interval_us * interval_us;
+	}
+
+	/**
+	 * Adds the samples of a row of this part to an accumulator. The samples
+	 * are known for the rows up to the bound, beyond it the row value is taken.
+	 */
+	private void accumulate(int r, int c, Accumulator target) {
+		if(r < head.size())
+			target.add(c, head.get(r));
+		else if(assigned[c] >= 0 && r >= assigned[c])
+			target.add(c, getValue(r, c));
+	}
+
+	/**
+	 * Interpolates the column of the held rows from the given row on.
+	 */
+	private void interpolate(int c, int from, long t0, float v0, long t1, float v1) {
+		if(from < 0)
+			return;
+		for(int h = Math.max(from - rows.size(), 0); h < held; h++) {
+			int s = slot(h);
+			heldRows[s].setColumnValue(c, interpolate(t0, v0, t1, v1, heldTms[s]));
+		}
+	}
+
+	private static float interpolate(long t0, float v0, long t1, float v1, long t) {
+		if(t1 <= t0 || t >= t1)
+			return v1;
+		if(t <= t0)
+			return v0;
+		return v0 + (v1 - v0) * (float)(t - t0) / (float)(t1 - t0);
+	}
+
+	private static class Accumulator {
+
+		final double[] sum;
+		final int[]    count;
+		final float[]  min;
+		final float[]  max;
+
+		Accumulator(int columns) {
+			sum   = new double[columns];
+			count = new int[columns];
+			min   = new float[columns];
+			max   = new float[columns];
+		}
+
+		void add(int c, float value) {
+			if(count[c] == 0 || value < min[c])
+				min[c] = value;
+			if(count[c] == 0 || value > max[c])
+				max[c] = value;
+			sum[c] += value;
+			count[c]++;
+		}
+
+		void add(int c, Accumulator a) {
+			if(a.count[c] == 0)
+				return;
+			if(count[c] == 0 || a.min[c] < min[c])
+				min[c] = a.min[c];
+			if(count[c] == 0 || a.max[c] > max[c])
+				max[c] = a.max[c];
+			sum[c]   += a.sum[c];
+			count[c] += a.count[c];
+		}
+
+		void set(int c, Accumulator a) {
+			reset(c);
+			add(c, a);
+		}
+
+		void reset(int c) {
+			sum[c] = 0;
+			count[c] = 0;
+		}
+
+		float get(int c, int policy, float last) {
+			if(count[c] == 0)
+				return last;
+			float mean = (float)(sum[c] / count[c]);
+			if(policy == KeyFigureMetaData.RESAMPLE_MEAN)
+				return mean;
+			return max[c] - mean >= mean - min[c] ? max[c] : min[c];
+		}
+	}
+}
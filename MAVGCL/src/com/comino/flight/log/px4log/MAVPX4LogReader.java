@@ -34,10 +34,7 @@
 
 package com.comino.flight.log.px4log;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.concurrent.Executors;
@@ -46,11 +43,11 @@ import java.util.concurrent.TimeUnit;
 
 import org.mavlink.messages.lquac.msg_log_data;
 import org.mavlink.messages.lquac.msg_log_entry;
-import org.mavlink.messages.lquac.msg_log_request_data;
 import org.mavlink.messages.lquac.msg_log_request_end;
 import org.mavlink.messages.lquac.msg_log_request_list;
 
 import com.comino.flight.log.FileHandler;
+import com.comino.flight.log.MAVLogDownload;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.observables.StateProperties;
 import com.comino.mav.control.IMAVController;
@@ -60,17 +57,16 @@ import com.comino.msp.model.DataModel;
 
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import me.drton.jmavlib.log.px4.PX4LogReader;
 
 public class MAVPX4LogReader implements IMAVLinkListener {
 
 	private IMAVController control = null;
 	private int     last_log_id   = 0;
-	private long  log_bytes_read  = 0;
-	private long  log_bytes_total = 0;
 
 	private File tmpfile = null;
-	private BufferedOutputStream out = null;
+	private MAVLogDownload download = null;
+	private PX4StreamConverter converter = null;
+	private boolean isULog = false;
 
 	private BooleanProperty isCollecting = new SimpleBooleanProperty();
 	private AnalysisModelService collector = AnalysisModelService.getInstance();
@@ -86,12 +82,6 @@ public class MAVPX4LogReader implements IMAVLinkListener {
 		this.control = control;
 		this.control.addMAVLinkListener(this);
         this.state = StateProperties.getInstance();
-
-		try {
-			this.tmpfile = FileHandler.getInstance().getTempFile();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
 	public void requestLastLog() {
@@ -103,7 +93,7 @@ public class MAVPX4LogReader implements IMAVLinkListener {
 		});
 
         start = System.currentTimeMillis();
-		collector.clearModelList();
+		collector.clearModelListForImport();
 		isCollecting.set(true);
 		msg_log_request_list msg = new msg_log_request_list(255,1);
 		msg.target_component = 1;
@@ -123,16 +113,18 @@ public class MAVPX4LogReader implements IMAVLinkListener {
 		if(!isCollecting.get())
 			return;
 
-		try {
-			out.close();
-		} catch (Exception e) {  }
+		if(download != null)
+			download.stop();
+		else {
+			msg_log_request_end msg = new msg_log_request_end(255,1);
+			msg.target_component = 1;
+			msg.target_system = 1;
+			control.sendMAVLinkMessage(msg);
+		}
+		download = null;
 
 		collector.clearModelList();
 		isCollecting.set(false);
-		msg_log_request_end msg = new msg_log_request_end(255,1);
-		msg.target_component = 1;
-		msg.target_system = 1;
-		control.sendMAVLinkMessage(msg);
 		state.getLogLoadedProperty().set(false);
 		state.getProgressProperty().set(-1);
 		FileHandler.getInstance().setName("");
@@ -159,74 +151,91 @@ public class MAVPX4LogReader implements IMAVLinkListener {
 					msg.end = last_log_id;
 					control.sendMAVLinkMessage(msg);
 				}
-				else {
+				else if(download == null) {
 					to.cancel(true);
 					time_utc = entry.time_utc;
-					try {
-						out = new BufferedOutputStream(new FileOutputStream(tmpfile));
-					} catch (FileNotFoundException e) { cancel(); }
-					log_bytes_read = 0; log_bytes_total = entry.size;
+					converter = null; isULog = false;
 					MSPLogger.getInstance().writeLocalMsg(
-							"Loading px4log from vehicle ("+last_log_id+") - Size: "+(entry.size/1024)+" kb");
-					msg_log_request_data msg = new msg_log_request_data(255,1);
-					msg.target_component = 1;
-					msg.target_system = 1;
-					msg.id = last_log_id;
-					msg.count = Long.MAX_VALUE;
-					control.sendMAVLinkMessage(msg);
+							"Loading log from vehicle ("+last_log_id+") - Size: "+(entry.size/1024)+" kb");
+					try {
+						tmpfile  = FileHandler.getInstance().getDownloadFile(last_log_id, time_utc);
+						download = new MAVLogDownload(control, tmpfile, last_log_id, entry.size, time_utc);
+						long resumed = download.start((data, offset, count) -> write(data, offset, count));
+						if(resumed > 0)
+							MSPLogger.getInstance().writeLocalMsg("Resuming log download at "+(resumed/1024)+" kb");
+					} catch (IOException e) { cancel(); }
 				}
 			}
 		}
 
 		if( o instanceof msg_log_data) {
 
-			if(!isCollecting.get())
+			if(!isCollecting.get() || download == null)
 				return;
 
-			msg_log_data data = (msg_log_data) o;
+			boolean complete = download.received((msg_log_data) o);
 
-			for(int i=0;i< data.count;i++) {
-				try {
-					out.write(data.data[i]);
-				} catch (IOException e) { cancel(); }
-			}
-			log_bytes_read = data.ofs;
-
-			if((System.currentTimeMillis()-tms)>5000) {
-				//System.out.println("LOG "+log_bytes_read+" bytes read");
-				state.getProgressProperty().set(getProgress()/100f);
+			if((System.currentTimeMillis()-tms)>1000) {
+				state.getProgressProperty().set(download.getProgress());
+				FileHandler.getInstance().setName(String.format("Log loading.. %.0f kB/s",download.getRate_kbs()));
 				tms = System.currentTimeMillis();
 			}
 
-			if(data.count < 90) {
-				try {
-					out.close();
-				} catch (IOException e) { cancel();  }
+			if(complete) {
+				download.stop();
+				String name = (isULog ? "ULog-" : "PX4Log-")+last_log_id+"-"+time_utc;
 				try {
-
-					msg_log_request_end msg = new msg_log_request_end(255,1);
-					msg.target_component = 1;
-					msg.target_system = 1;
-					control.sendMAVLinkMessage(msg);
 					ArrayList<DataModel>modelList = new ArrayList<DataModel>();
-					PX4LogReader reader = new PX4LogReader(tmpfile.getAbsolutePath());
-					PX4toModelConverter converter = new PX4toModelConverter(reader,collector.getModelList());
-					converter.doConversion();
+					if(!isULog && converter != null)
+						converter.finish();
 					control.getCollector().setModelList(modelList);
-					long speed = log_bytes_total * 1000 / ( 1024 * (System.currentTimeMillis() - start));
-					MSPLogger.getInstance().writeLocalMsg("Reading log from device finished +("+speed+" kbtyes/sec)");
+					long speed = download.getSize() * 1000 / ( 1024 * Math.max(1, System.currentTimeMillis() - start));
+					MSPLogger.getInstance().writeLocalMsg("Reading log from device finished ("+speed+" kbytes/sec, "
+							+download.getRetransmits()+" retransmits)");
 					state.getProgressProperty().set(-1);
 				} catch (Exception e) { e.printStackTrace(); }
 
-				FileHandler.getInstance().setName("PX4Log-"+last_log_id+"-"+time_utc);
-
+				FileHandler.getInstance().setName(name);
+				// ULogs are converted off the MAVLink thread and replace the list when complete
+				if(isULog)
+					FileHandler.getInstance().importDownloadedULog(tmpfile, name);
+				download = null;
 				isCollecting.set(false);
 			}
 		}
 	}
 
+	/**
+	 * Receives the log in order. ULogs are converted when complete, px4logs
+	 * while they arrive.
+	 */
+	private void write(byte[] data, int offset, int count) {
+		if(converter == null && !isULog) {
+			isULog = count >= 4 && data[offset] == 'U' && data[offset+1] == 'L'
+					&& data[offset+2] == 'o' && data[offset+3] == 'g';
+			if(!isULog)
+				converter = new PX4StreamConverter(collector.getModelList());
+		}
+		if(converter != null)
+			converter.feed(data, offset, count);
+	}
+
 	public int getProgress() {
-		return (int)((log_bytes_read * 100) / log_bytes_total);
+		return download == null ? 0 : (int)(download.getProgress() * 100);
+	}
+
+	/**
+	 * @return current download rate in kB/s
+	 */
+	public float getRate_kbs() {
+		return download == null ? 0 : download.getRate_kbs();
+	}
+
+	/**
+	 * @return number of windows requested again in the current download
+	 */
+	public int getRetransmits() {
+		return download == null ? 0 : download.getRetransmits();
 	}
 
 	public BooleanProperty isCollecting() {
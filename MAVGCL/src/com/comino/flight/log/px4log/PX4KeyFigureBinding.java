@@ -0,0 +1,129 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.px4log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.comino.flight.log.Resampler;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.converter.SourceConverter;
+
+import me.drton.jmavlib.log.px4.PX4LogMessage;
+import me.drton.jmavlib.log.px4.PX4LogMessageDescription;
+import me.drton.jmavlib.log.px4.PX4LogReader;
+
+/**
+ * Resolves the PX4Log sources of all key figures once per log to
+ * (message type, field, column) slots, so messages are written into the
+ * model columns without building or looking up field names.
+ */
+public class PX4KeyFigureBinding {
+
+	private final Slot[][] slots = new Slot[256][];
+	private int bound = 0;
+
+	public PX4KeyFigureBinding(PX4LogReader reader, AnalysisDataModelMetaData meta) {
+		this(reader.getMessageDescriptions(), meta);
+	}
+
+	public PX4KeyFigureBinding(Collection<PX4LogMessageDescription> messageDescriptions, AnalysisDataModelMetaData meta) {
+
+		Map<String,PX4LogMessageDescription> descriptions = new HashMap<String,PX4LogMessageDescription>();
+		for(PX4LogMessageDescription d : messageDescriptions)
+			descriptions.put(d.name, d);
+
+		Map<Integer,List<Slot>> list = new HashMap<Integer,List<Slot>>();
+		for(KeyFigureMetaData kf : meta.getKeyFigures(KeyFigureMetaData.PX4_SOURCE)) {
+			String source = kf.getSourceField(KeyFigureMetaData.PX4_SOURCE);
+			int dot = source.indexOf('.');
+			if(dot < 0)
+				continue;
+			PX4LogMessageDescription d = descriptions.get(source.substring(0, dot));
+			if(d == null || d.type < 0 || d.type >= slots.length)
+				continue;
+			Integer field = d.fieldsMap.get(source.substring(dot+1));
+			if(field == null)
+				continue;
+			if(!list.containsKey(d.type))
+				list.put(d.type, new ArrayList<Slot>());
+			list.get(d.type).add(new Slot(field, kf.getColumn(), kf.getConverter(KeyFigureMetaData.PX4_SOURCE)));
+			bound++;
+		}
+		list.forEach((type,s) -> slots[type] = s.toArray(new Slot[s.size()]));
+	}
+
+	/**
+	 * Number of key figure sources found in the log.
+	 */
+	public int getBoundCount() {
+		return bound;
+	}
+
+	/**
+	 * Passes the bound fields of the message to the resampler.
+	 */
+	public void apply(PX4LogMessage msg, Resampler resampler) {
+		int type = msg.description.type;
+		if(type < 0 || type >= slots.length || slots[type] == null)
+			return;
+		for(Slot slot : slots[type]) {
+			Object o = msg.get(slot.field);
+			if(o instanceof Number)
+				resampler.set(slot.column, slot.convert(((Number)o).floatValue()));
+		}
+	}
+
+	private static class Slot {
+
+		final int field;
+		final int column;
+		final SourceConverter converter;
+
+		Slot(int field, int column, SourceConverter converter) {
+			this.field     = field;
+			this.column    = column;
+			this.converter = converter;
+		}
+
+		float convert(float value) {
+			return converter == null ? value : converter.convert(value);
+		}
+	}
+}
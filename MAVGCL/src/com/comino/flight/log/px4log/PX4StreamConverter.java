@@ -0,0 +1,95 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.px4log;
+
+import java.util.Collection;
+
+import com.comino.flight.log.Resampler;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
+
+import me.drton.jmavlib.log.px4.PX4LogMessage;
+import me.drton.jmavlib.log.px4.PX4LogMessageDescription;
+import me.drton.jmavlib.log.px4.PX4LogStreamParser;
+
+/**
+ * Converts a PX4Log into the model while it is received. Bytes are passed to
+ * an incremental parser and each completed time step is passed to a resampler
+ * the same way PX4toModelConverter does, so the charts can follow the download.
+ */
+public class PX4StreamConverter implements PX4LogStreamParser.Listener {
+
+	private AnalysisDataStore list;
+	private PX4LogStreamParser parser;
+	private PX4KeyFigureBinding binding = null;
+
+	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+	private Resampler resampler;
+
+	public PX4StreamConverter(AnalysisDataStore list) {
+		this.list   = list;
+		this.parser = new PX4LogStreamParser(this);
+		list.clear();
+		this.resampler = new Resampler(list, meta);
+	}
+
+	public void feed(byte[] data, int offset, int count) {
+		parser.feed(data, offset, count);
+	}
+
+	public void finish() {
+		parser.finish();
+		resampler.flush();
+		if(parser.getErrors() > 0)
+			System.out.println("WARNING: "+parser.getErrors()+" bytes or messages of the PX4Log skipped");
+		System.out.println(list.size()+" entries read. Timespan is "+list.getLastTms()/1e6f+" sec");
+	}
+
+	@Override
+	public void formats(Collection<PX4LogMessageDescription> descriptions) {
+		binding = new PX4KeyFigureBinding(descriptions, meta);
+	}
+
+	@Override
+	public void message(PX4LogMessage msg) {
+		if(binding != null)
+			binding.apply(msg, resampler);
+	}
+
+	@Override
+	public void update(long time) {
+		resampler.update(time - parser.getStartMicroseconds());
+	}
+}
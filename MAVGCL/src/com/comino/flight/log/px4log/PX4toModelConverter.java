@@ -34,56 +34,66 @@
 package com.comino.flight.log.px4log;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
-import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.log.ProgressMonitor;
+import com.comino.flight.log.ProgressMonitor.Stage;
+import com.comino.flight.log.Resampler;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
 
-import me.drton.jmavlib.log.BinaryLogReader;
 import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.px4.PX4LogReader;
 
 public class PX4toModelConverter {
 
-	private BinaryLogReader reader;
-	private List<AnalysisDataModel> list;
+	private PX4LogReader reader;
+	private AnalysisDataStore list;
+	private ProgressMonitor monitor = new ProgressMonitor();
 
 	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
 
 
-	public PX4toModelConverter(BinaryLogReader reader, List<AnalysisDataModel> list) {
+	public PX4toModelConverter(PX4LogReader reader, AnalysisDataStore list) {
 		this.reader = reader;
 		this.list = list;
 	}
 
 
+	/**
+	 * Reports the decoding stage; cancelling it aborts the conversion with a
+	 * CancellationException.
+	 */
+	public void setMonitor(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+
 	public void doConversion() throws FormatErrorException {
 
-		long tms_slot = 0; long tms = 0; boolean errorFlag = false;
+		long tms = 0; boolean errorFlag = false;
 
-		Map<String,Object> data = new HashMap<String,Object>();
+		PX4KeyFigureBinding binding = new PX4KeyFigureBinding(reader, meta);
 
 		list.clear();
-		AnalysisDataModel model = new AnalysisDataModel();
+		Resampler resampler = new Resampler(list, meta);
+
+		monitor.stage(Stage.DECODING);
 
 		try {
 
 			while(tms < reader.getSizeMicroseconds()) {
-				tms = reader.readUpdate(data)-reader.getStartMicroseconds();
-				if(tms > tms_slot) {
-					model.tms = tms;
-					tms_slot += 50000;
-					model.setValuesPX4(data, meta);
-					list.add(model.clone());
-				}
+				tms = reader.readUpdate(msg -> binding.apply(msg, resampler))-reader.getStartMicroseconds();
+				resampler.update(tms);
+				monitor.update((float)tms / reader.getSizeMicroseconds());
 			}
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+			resampler.flush();
+			System.out.println(list.size()+" entries read. Timespan is "+list.getLastTms()/1e6f+" sec");
 
 		} catch(IOException e) {
+			resampler.flush();
 			if(errorFlag)
 				System.out.println("WARNING: Some of the key-figures were not available in the PX4Log");
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+			System.out.println(list.size()+" entries read. Timespan is "+list.getLastTms()/1e6f+" sec");
 
 		}
 	}
@@ -0,0 +1,128 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.tlog;
+
+import java.util.Arrays;
+
+import com.comino.flight.log.Resampler;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.converter.SourceConverter;
+
+import me.drton.jmavlib.log.TLogReader;
+import me.drton.jmavlib.mavlink.MAVLinkDataType;
+import me.drton.jmavlib.mavlink.MAVLinkField;
+import me.drton.jmavlib.mavlink.MAVLinkMessageDefinition;
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+
+/**
+ * Resolves the TLog sources of all key figures once against the MAVLink
+ * schema to (message ID, byte offset, type, column) slots, so frames are
+ * dispatched by their message ID and written into the model columns without
+ * decoding the whole message.
+ */
+public class TLogKeyFigureBinding {
+
+	private final Slot[][] slots = new Slot[256][];
+	private int bound = 0;
+
+	public TLogKeyFigureBinding(MAVLinkSchema schema, AnalysisDataModelMetaData meta) {
+
+		for(KeyFigureMetaData kf : meta.getKeyFigures(KeyFigureMetaData.TLG_SOURCE)) {
+			String source = kf.getSourceField(KeyFigureMetaData.TLG_SOURCE);
+			int dot = source.indexOf('.');
+			if(dot < 0)
+				continue;
+			MAVLinkMessageDefinition definition = schema.getMessageDefinition(source.substring(0, dot));
+			if(definition == null || definition.id >= slots.length) {
+				System.err.println(kf.toStringAll()+": MAVLink message of "+source+" not available");
+				continue;
+			}
+			MAVLinkField field = definition.fieldsByName.get(source.substring(dot+1));
+			if(field == null) {
+				System.err.println(kf.toStringAll()+": MAVLink field "+source+" not available");
+				continue;
+			}
+			Slot slot = new Slot(field.offset, field.type, kf.getColumn(), kf.getConverter(KeyFigureMetaData.TLG_SOURCE));
+			Slot[] s = slots[definition.id];
+			if(s == null)
+				s = new Slot[] { slot };
+			else {
+				s = Arrays.copyOf(s, s.length+1);
+				s[s.length-1] = slot;
+			}
+			slots[definition.id] = s;
+			bound++;
+		}
+	}
+
+	/**
+	 * Number of key figure sources found in the schema.
+	 */
+	public int getBoundCount() {
+		return bound;
+	}
+
+	/**
+	 * Passes the bound fields of the current frame of the reader to the
+	 * resampler. Frames of other systems than the vehicle are ignored.
+	 */
+	public void apply(TLogReader reader, Resampler resampler) {
+		Slot[] s = slots[reader.msgID];
+		if(s == null || (reader.getSystemID() >= 0 && reader.systemID != reader.getSystemID()))
+			return;
+		for(Slot slot : s)
+			resampler.set(slot.column, slot.convert(reader.getFloat(slot.offset, slot.type)));
+	}
+
+	private static class Slot {
+
+		final int offset;
+		final MAVLinkDataType type;
+		final int column;
+		final SourceConverter converter;
+
+		Slot(int offset, MAVLinkDataType type, int column, SourceConverter converter) {
+			this.offset    = offset;
+			this.type      = type;
+			this.column    = column;
+			this.converter = converter;
+		}
+
+		float convert(float value) {
+			return converter == null ? value : converter.convert(value);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.tlog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.comino.flight.log.ProgressMonitor;
+import com.comino.flight.log.ProgressMonitor.Stage;
+import com.comino.flight.log.Resampler;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.msp.model.segment.LogMessage;
+
+import me.drton.jmavlib.log.TLogReader;
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+
+public class TLogtoModelConverter {
+
+	private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final long PROGRESS_MS      = 100;
+
+	private static MAVLinkSchema defaultSchema = null;
+
+	private TLogReader reader;
+	private AnalysisDataStore list;
+	private ProgressMonitor monitor = new ProgressMonitor();
+
+	// set when the conversion ends, remaining segments stop decoding
+	private volatile boolean stopped = false;
+	private MAVLinkSchema schema;
+
+	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+
+	public TLogtoModelConverter(TLogReader reader, MAVLinkSchema schema, AnalysisDataStore list) {
+		this.reader = reader;
+		this.schema = schema;
+		this.list = list;
+	}
+
+
+	/**
+	 * MAVLink messages of the built-in schema, loaded once.
+	 */
+	public static synchronized MAVLinkSchema getSchema() throws Exception {
+		if(defaultSchema == null)
+			defaultSchema = new MAVLinkSchema(TLogtoModelConverter.class.getResourceAsStream("MAVLinkSchema.xml"));
+		return defaultSchema;
+	}
+
+
+	/**
+	 * Reports the decoding, resampling and indexing stages; cancelling it
+	 * aborts the conversion with a CancellationException.
+	 */
+	public void setMonitor(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+
+	public void doConversion() throws IOException {
+		long segments = Math.min(Runtime.getRuntime().availableProcessors(), reader.size() / MIN_SEGMENT_SIZE);
+		doConversion((int)Math.max(1, segments));
+	}
+
+	/**
+	 * Decodes the log in segments in parallel. Each segment is resampled into
+	 * its own rows, which are then appended in order to the list. A failure
+	 * of any segment aborts the conversion and is rethrown.
+	 */
+	public void doConversion(int count) throws IOException {
+
+		TLogKeyFigureBinding binding = new TLogKeyFigureBinding(schema, meta);
+
+		list.clear();
+
+		long[] bounds = reader.getSegments(count);
+		List<Segment> segments = new ArrayList<Segment>();
+		List<Future<Segment>> tasks = new ArrayList<Future<Segment>>();
+		for(int s = 0; s < bounds.length - 1; s++) {
+			segments.add(new Segment(binding, bounds[s], bounds[s+1]));
+			tasks.add(ForkJoinPool.commonPool().submit(segments.get(s)));
+		}
+
+		Resampler resampler = new Resampler(list, meta);
+
+		try {
+
+			monitor.stage(Stage.DECODING);
+			for(Future<Segment> task : tasks) {
+				while(!task.isDone()) {
+					long decoded_us = 0;
+					for(Segment segment : segments)
+						decoded_us += segment.decoded_us;
+					monitor.update((float)decoded_us / reader.getSizeMicroseconds());
+					try {
+						task.get(PROGRESS_MS, TimeUnit.MILLISECONDS);
+					} catch(TimeoutException e) { }
+				}
+			}
+
+			monitor.stage(Stage.RESAMPLING);
+			for(int s = 0; s < tasks.size(); s++) {
+				tasks.get(s).get().appendTo(resampler);
+				monitor.update((s + 1f) / tasks.size());
+			}
+			resampler.flush();
+
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("TLog conversion interrupted");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		} finally {
+			// segment readers use the mapping of the reader, which is closed by the caller
+			stopped = true;
+			awaitSegments(tasks);
+		}
+
+		monitor.stage(Stage.INDEXING);
+		reader.getStatusTexts().forEach(s -> {
+			if(reader.getSystemID() >= 0 && s.systemID != reader.getSystemID())
+				return;
+			int i = list.indexOf(s.timestamp - reader.getStartMicroseconds());
+			if(i > 0)
+				list.setMessage(i, new LogMessage(s.text,s.severity));
+		});
+
+		System.out.println(list.size()+" entries read in "+tasks.size()+" segments. Timespan is "+list.getLastTms()/1e6f+" sec");
+	}
+
+	private void awaitSegments(List<Future<Segment>> tasks) {
+		boolean interrupted = false;
+		for(Future<Segment> task : tasks) {
+			while(true) {
+				try {
+					task.get();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+				} catch(ExecutionException | CancellationException e) {
+					break;
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+
+	private class Segment implements Callable<Segment> {
+
+		private final TLogKeyFigureBinding binding;
+		private final long start;
+		private final long end;
+
+		private final AnalysisDataStore rows = new AnalysisDataStore();
+		private final Resampler resampler;
+
+		private volatile long decoded_us = 0;
+
+		public Segment(TLogKeyFigureBinding binding, long start, long end) {
+			this.binding   = binding;
+			this.start     = start;
+			this.end       = end;
+			rows.setInterval_us(list.getInterval_us());
+			this.resampler = new Resampler(rows, meta);
+			// samples of rows merged into those of the segments before are kept
+			resampler.setBound(reader.getLatestTimestamp(start) - reader.getStartMicroseconds());
+		}
+
+		@Override
+		public Segment call() throws IOException {
+			if(stopped)
+				return this;
+			TLogReader segmentReader = reader.createSegmentReader(start, end);
+			long first = -1;
+			try {
+				while(!stopped && !monitor.isCancelled() && segmentReader.next()) {
+					binding.apply(segmentReader, resampler);
+					long tms = segmentReader.timestamp - reader.getStartMicroseconds();
+					resampler.update(tms);
+					if(first < 0)
+						first = tms;
+					decoded_us = tms - first;
+				}
+			} finally {
+				segmentReader.close();
+			}
+			return this;
+		}
+
+		public void appendTo(Resampler resampler) {
+			resampler.append(this.resampler);
+			rows.clear();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.comino.flight.log.Resampler;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.converter.SourceConverter;
+
+import me.drton.jmavlib.log.ulog.DataRecord;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/**
+ * Resolves the ULog sources of all key figures once per log to
+ * (subscription, byte offset, type, column) slots, so data records are
+ * written into the model columns without building or looking up field names.
+ */
+public class UlogKeyFigureBinding {
+
+	private final Slot[][] slots;
+	private int bound = 0;
+
+	public UlogKeyFigureBinding(ULogReader reader, AnalysisDataModelMetaData meta) {
+
+		Map<String,List<Integer>> subscriptions = new HashMap<String,List<Integer>>();
+		for(int id = 0; id < reader.getSubscriptionCount(); id++) {
+			String name = reader.getSubscriptionName(id);
+			if(name == null)
+				continue;
+			List<Integer> ids = subscriptions.get(name);
+			if(ids == null) {
+				ids = new ArrayList<Integer>();
+				subscriptions.put(name, ids);
+			}
+			ids.add(id);
+		}
+
+		List<List<Slot>> list = new ArrayList<List<Slot>>();
+		for(int id = 0; id < reader.getSubscriptionCount(); id++)
+			list.add(null);
+
+		for(KeyFigureMetaData kf : meta.getKeyFigures(KeyFigureMetaData.ULG_SOURCE)) {
+			String source = kf.getSourceField(KeyFigureMetaData.ULG_SOURCE);
+			int dot = source.indexOf('.');
+			if(dot < 0)
+				continue;
+			List<Integer> ids = subscriptions.get(source.substring(0, dot));
+			if(ids == null)
+				continue;
+			for(int id : ids) {
+				int[] field = reader.resolveField(id, source.substring(dot+1));
+				if(field == null)
+					continue;
+				if(list.get(id) == null)
+					list.set(id, new ArrayList<Slot>());
+				list.get(id).add(new Slot(field[2], (byte)field[3], kf.getColumn(),
+						kf.getConverter(KeyFigureMetaData.ULG_SOURCE)));
+				bound++;
+			}
+		}
+
+		slots = new Slot[list.size()][];
+		for(int id = 0; id < slots.length; id++) {
+			if(list.get(id) != null)
+				slots[id] = list.get(id).toArray(new Slot[list.get(id).size()]);
+		}
+	}
+
+	/**
+	 * Number of key figure sources found in the log.
+	 */
+	public int getBoundCount() {
+		return bound;
+	}
+
+	/**
+	 * Subscription IDs with at least one key figure source, to be used as
+	 * filter of the reader.
+	 */
+	public BitSet getSubscriptions() {
+		BitSet subscriptions = new BitSet(slots.length);
+		for(int id = 0; id < slots.length; id++) {
+			if(slots[id] != null)
+				subscriptions.set(id);
+		}
+		return subscriptions;
+	}
+
+	/**
+	 * Passes the bound fields of the record to the resampler.
+	 */
+	public void apply(DataRecord record, Resampler resampler) {
+		if(record.msgID >= slots.length || slots[record.msgID] == null)
+			return;
+		for(Slot slot : slots[record.msgID])
+			resampler.set(slot.column, slot.convert(record.getFloat(slot.offset, slot.type)));
+	}
+
+	private static class Slot {
+
+		final int offset;
+		final byte type;
+		final int column;
+		final SourceConverter converter;
+
+		Slot(int offset, byte type, int column, SourceConverter converter) {
+			this.offset    = offset;
+			this.type      = type;
+			this.column    = column;
+			this.converter = converter;
+		}
+
+		float convert(float value) {
+			return converter == null ? value : converter.convert(value);
+		}
+	}
+}
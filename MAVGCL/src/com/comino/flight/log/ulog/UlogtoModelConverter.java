@@ -33,74 +33,206 @@
 
 package com.comino.flight.log.ulog;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-
-import com.comino.flight.model.AnalysisDataModel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.comino.flight.log.ProgressMonitor;
+import com.comino.flight.log.ProgressMonitor.Stage;
+import com.comino.flight.log.Resampler;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
 import com.comino.msp.model.segment.LogMessage;
 
 import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.ulog.DataRecord;
 import me.drton.jmavlib.log.ulog.ULogReader;
 
 public class UlogtoModelConverter {
 
+	private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final long PROGRESS_MS      = 100;
+
 	private ULogReader reader;
-	private List<AnalysisDataModel> list;
+	private AnalysisDataStore list;
+	private ProgressMonitor monitor = new ProgressMonitor();
+
+	// set when the conversion ends, remaining segments stop decoding
+	private volatile boolean stopped = false;
 
 	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
 
 
-	public UlogtoModelConverter(ULogReader reader, List<AnalysisDataModel> list) {
+	public UlogtoModelConverter(ULogReader reader, AnalysisDataStore list) {
 		this.reader = reader;
 		this.list = list;
 	}
 
 
-	public void doConversion() throws FormatErrorException {
+	/**
+	 * Reports the decoding, resampling and indexing stages; cancelling it
+	 * aborts the conversion with a CancellationException.
+	 */
+	public void setMonitor(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+
+	public void doConversion() throws FormatErrorException, IOException {
+		long segments = Math.min(Runtime.getRuntime().availableProcessors(), reader.size() / MIN_SEGMENT_SIZE);
+		doConversion((int)Math.max(1, segments));
+	}
 
-		long tms_slot = 0; long tms = 0; boolean errorFlag = false;
+	/**
+	 * Decodes the log in segments in parallel. Each segment is resampled into
+	 * its own rows, which are then appended in order to the list. A failure
+	 * of any segment aborts the conversion and is rethrown.
+	 */
+	public void doConversion(int count) throws FormatErrorException, IOException {
 
-		Map<String,Object> data = new HashMap<String,Object>();
+		UlogKeyFigureBinding binding = new UlogKeyFigureBinding(reader, meta);
+		reader.setSubscriptionFilter(binding.getSubscriptions());
 
 		list.clear();
 
-		try {
+		long[] bounds = reader.getSegments(count);
+		List<Segment> segments = new ArrayList<Segment>();
+		List<Future<Segment>> tasks = new ArrayList<Future<Segment>>();
+		for(int s = 0; s < bounds.length - 1; s++) {
+			segments.add(new Segment(binding, bounds[s], bounds[s+1]));
+			tasks.add(ForkJoinPool.commonPool().submit(segments.get(s)));
+		}
 
-			while(tms < reader.getSizeMicroseconds()) {
-				tms = reader.readUpdate(data)-reader.getStartMicroseconds();
+		Resampler resampler = new Resampler(list, meta);
 
-				if(tms > tms_slot) {
-					AnalysisDataModel model = new AnalysisDataModel();
-					model.tms = tms;
-					tms_slot += 50000;
-					model.setValuesULog(data, meta);
-					list.add(model);
-				}
-			}
+		try {
 
-			reader.loggedMessages.forEach(s -> {
-				LogMessage msg = new LogMessage(s.message,s.logLevel & 0x00FF - 56);
-				int i = (int)((s.timestamp - reader.getStartMicroseconds())/50000);
-				if(i > 0) {
-					AnalysisDataModel model = list.get(i);
-					model.msg = msg;
+			monitor.stage(Stage.DECODING);
+			for(Future<Segment> task : tasks) {
+				while(!task.isDone()) {
+					long decoded_us = 0;
+					for(Segment segment : segments)
+						decoded_us += segment.decoded_us;
+					monitor.update((float)decoded_us / reader.getSizeMicroseconds());
+					try {
+						task.get(PROGRESS_MS, TimeUnit.MILLISECONDS);
+					} catch(TimeoutException e) { }
 				}
-			});
+			}
 
+			monitor.stage(Stage.RESAMPLING);
+			for(int s = 0; s < tasks.size(); s++) {
+				tasks.get(s).get().appendTo(resampler);
+				monitor.update((s + 1f) / tasks.size());
+			}
+			resampler.flush();
+
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("ULog conversion interrupted");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof FormatErrorException)
+				throw (FormatErrorException)cause;
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		} finally {
+			// segment readers use the mapping of the reader, which is closed by the caller
+			stopped = true;
+			awaitSegments(tasks);
+		}
 
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+		monitor.stage(Stage.INDEXING);
+		reader.loggedMessages.forEach(s -> {
+			LogMessage msg = new LogMessage(s.message,s.logLevel & 0x00FF - 56);
+			int i = list.indexOf(s.timestamp - reader.getStartMicroseconds());
+			if(i > 0)
+				list.setMessage(i, msg);
+		});
 
-		} catch(IOException e) {
-			if(errorFlag)
-				System.out.println("WARNING: Some of the key-figures were not available in the PX4Log");
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+		System.out.println(list.size()+" entries read in "+tasks.size()+" segments. Timespan is "+list.getLastTms()/1e6f+" sec");
+	}
 
+	private void awaitSegments(List<Future<Segment>> tasks) {
+		boolean interrupted = false;
+		for(Future<Segment> task : tasks) {
+			while(true) {
+				try {
+					task.get();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+				} catch(ExecutionException | CancellationException e) {
+					break;
+				}
+			}
 		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
 	}
 
 
+	private class Segment implements Callable<Segment> {
+
+		private final UlogKeyFigureBinding binding;
+		private final long start;
+		private final long end;
+
+		private final AnalysisDataStore rows = new AnalysisDataStore();
+		private final Resampler resampler;
+
+		private volatile long decoded_us = 0;
+
+		public Segment(UlogKeyFigureBinding binding, long start, long end) {
+			this.binding   = binding;
+			this.start     = start;
+			this.end       = end;
+			rows.setInterval_us(list.getInterval_us());
+			this.resampler = new Resampler(rows, meta);
+			// samples of rows merged into those of the segments before are kept
+			resampler.setBound(reader.getLatestTimestamp(start) - reader.getStartMicroseconds());
+		}
 
+		@Override
+		public Segment call() throws FormatErrorException, IOException {
+			if(stopped)
+				return this;
+			ULogReader segmentReader = reader.createSegmentReader(start, end);
+			long first = -1;
+			try {
+				while(!stopped && !monitor.isCancelled()) {
+					DataRecord record = segmentReader.readRecord();
+					binding.apply(record, resampler);
+					long tms = record.timestamp - reader.getStartMicroseconds();
+					resampler.update(tms);
+					if(first < 0)
+						first = tms;
+					decoded_us = tms - first;
+				}
+			} catch(EOFException e) {
+				// end of segment
+			} finally {
+				segmentReader.close();
+			}
+			return this;
+		}
+
+		public void appendTo(Resampler resampler) {
+			resampler.append(this.resampler);
+			rows.clear();
+		}
+	}
 }
@@ -31,34 +31,56 @@
  *
  ****************************************************************************/
 
+
 package com.comino.flight.model;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.flight.model.store.KeyFigureColumns;
 import com.comino.msp.model.DataModel;
 import com.comino.msp.model.segment.LogMessage;
 import com.comino.msp.model.segment.Status;
 
+/**
+ * A single sample of the analysis model. Either owns its values (e.g. the
+ * current model) or is a lightweight view of a row in an AnalysisDataStore.
+ */
 public class AnalysisDataModel {
 
 	public long       tms  = 0;
 	public LogMessage msg  = null;
 	public Status   status = null;
 
-	private Map<Integer,Float> data = null;
+	private float[] data = null;
+
+	private transient AnalysisDataStore store = null;
+	private transient int               index = 0;
 
 	public AnalysisDataModel() {
-		this.data = new HashMap<Integer,Float>();
+		this.data = new float[KeyFigureColumns.getInstance().getCount()];
+	}
+
+	private AnalysisDataModel(float[] d) {
+		this.data = Arrays.copyOf(d, d.length);
 	}
 
-	private AnalysisDataModel(Map<Integer,Float> d) {
-		this.data = new HashMap<Integer,Float>();
-		data.putAll(d);
+	public AnalysisDataModel(AnalysisDataStore store, int index) {
+		this.store  = store;
+		this.index  = index;
+		this.tms    = store.getTms(index);
+		this.msg    = store.getMessage(index);
+		this.status = store.getStatus(index);
 	}
 
 	public AnalysisDataModel clone() {
-		AnalysisDataModel d = new AnalysisDataModel(data);
+		AnalysisDataModel d = null;
+		if(store!=null) {
+			d = new AnalysisDataModel();
+			for(int c=0; c < getColumnCount(); c++)
+				d.setColumnValue(c, getColumnValue(c));
+		} else
+			d = new AnalysisDataModel(data);
 		d.tms = tms;
 		if(msg!=null)
 		  d.msg = msg.clone();
@@ -68,53 +90,60 @@ public class AnalysisDataModel {
 	}
 
 	public void clear()  {
-		data.clear();
+		if(store==null)
+			Arrays.fill(data, 0);
 		tms = 0;
 		msg = null;
 		status = null;
 	}
 
+	public boolean isView() {
+		return store!=null;
+	}
+
+	public int getColumnCount() {
+		if(store!=null)
+			return KeyFigureColumns.getInstance().getCount();
+		return data.length;
+	}
+
+	public float getColumnValue(int column) {
+		if(store!=null)
+			return store.getValue(index, column);
+		if(column < 0 || column >= data.length)
+			return 0;
+		return data[column];
+	}
+
+	public void setColumnValue(int column, float value) {
+		if(store!=null) {
+			store.setValue(index, column, value);
+			return;
+		}
+		if(column >= data.length)
+			data = Arrays.copyOf(data, KeyFigureColumns.getInstance().getCount());
+		data[column] = value;
+	}
 
 	public float getValue(String kf) {
-		try {
-		return data.get(kf.toLowerCase().hashCode());
-		} catch(Exception e) { 	}
-		return 0;
+		return getColumnValue(KeyFigureColumns.getInstance().findColumn(kf.toLowerCase().hashCode()));
 	}
 
 	public float getValue(KeyFigureMetaData m) {
-		try {
-			return data.get(m.hash);
-		} catch(Exception e) { 	}
-		return 0;
+		return getColumnValue(m.getColumn());
 	}
 
 	public void setValue(String kf,float value) {
-		data.put(kf.toLowerCase().hashCode(), value);
+		setColumnValue(KeyFigureColumns.getInstance().getColumn(kf.toLowerCase().hashCode()), value);
 	}
 
-	public void setValuesMSP(DataModel m, AnalysisDataModelMetaData md) {
-		md.getKeyFigureMap().forEach((i,e) -> {
-			try {
-				data.put(e.hash,e.getValueFromMSPModel(m));
-			} catch (Exception e1) { }
-		});
+	public void setValue(KeyFigureMetaData m,float value) {
+		setColumnValue(m.getColumn(), value);
 	}
 
-	public void setValuesPX4(Map<String,Object> d, AnalysisDataModelMetaData md) {
-		md.getKeyFigureMap().forEach((i,e) -> {
-			try {
-				data.put(e.hash,e.getValueFromPX4Model(d));
-			} catch (Exception e1) {  }
-		});
-	}
-
-	public void setValuesULog(Map<String,Object> d, AnalysisDataModelMetaData md) {
-		md.getKeyFigureMap().forEach((i,e) -> {
-			try {
-				data.put(e.hash,e.getValueFromULogModel(d));
-			} catch (Exception e1) {  }
-		});
+	public void setValuesMSP(DataModel m, AnalysisDataModelMetaData md) {
+		for(KeyFigureMetaData e : md.getMSPKeyFigures())
+			setColumnValue(e.getColumn(),e.getValueFromMSPModel(m));
 	}
 
 
@@ -57,6 +57,7 @@ public class AnalysisDataModelMetaData extends Observable {
 	private Map<Integer,KeyFigureMetaData>        meta   = null;
 	private Map<String,List<KeyFigureMetaData>> groups   = null;
 	private List<KeyFigureMetaData>     sortedMetaList   = null;
+	private volatile KeyFigureMetaData[] mspKeyFigures   = new KeyFigureMetaData[0];
 
 	private int count = 0;
 	private String version = "0.0";
@@ -98,6 +99,7 @@ public class AnalysisDataModelMetaData extends Observable {
 				buildKeyFigureList(doc.getElementsByTagName("KeyFigure"));
 
 				sortedMetaList = buildSortedList();
+				mspKeyFigures  = buildSourceList(KeyFigureMetaData.MSP_SOURCE);
 
 				setChanged();
 				notifyObservers(stream);
@@ -148,6 +150,22 @@ public class AnalysisDataModelMetaData extends Observable {
 		return sortedMetaList;
 	}
 
+	/**
+	 * Key figures with a source of the given type.
+	 */
+	public KeyFigureMetaData[] getKeyFigures(int type) {
+		if(type == KeyFigureMetaData.MSP_SOURCE)
+			return mspKeyFigures;
+		return buildSourceList(type);
+	}
+
+	/**
+	 * Key figures with a bound MSP source; resolved once per loaded model definition.
+	 */
+	public KeyFigureMetaData[] getMSPKeyFigures() {
+		return mspKeyFigures;
+	}
+
 	public List<String> getGroups() {
 		List<String> list = new ArrayList<String>();
 		groups.forEach((i,p) -> {
@@ -172,6 +190,17 @@ public class AnalysisDataModelMetaData extends Observable {
 		return list;
 	}
 
+	private KeyFigureMetaData[] buildSourceList(int type) {
+		List<KeyFigureMetaData> list = new ArrayList<KeyFigureMetaData>();
+		meta.forEach((i,p) -> {
+			if(p.hasSource(type)) {
+				p.getColumn();
+				list.add(p);
+			}
+		});
+		return list.toArray(new KeyFigureMetaData[list.size()]);
+	}
+
 	private void buildKeyFigureList(NodeList keyfigures) {
 		for (count = 0; count < keyfigures.getLength(); count++) {
 			KeyFigureMetaData keyfigure = buildKeyFigure(keyfigures.item(count));
@@ -187,6 +216,9 @@ public class AnalysisDataModelMetaData extends Observable {
 				kf_node.getAttributes().getNamedItem("uom" ).getTextContent(),
 				kf_node.getAttributes().getNamedItem("mask").getTextContent());
 
+		if(kf_node.getAttributes().getNamedItem("resample")!=null)
+			keyfigure.setResample(kf_node.getAttributes().getNamedItem("resample").getTextContent());
+
 		for(int i=0;i<kf_node.getChildNodes().getLength();i++) {
 			Node node = kf_node.getChildNodes().item(i);
 			if(node.getNodeName().equals("MSPSource")) {
@@ -211,6 +243,10 @@ public class AnalysisDataModelMetaData extends Observable {
 //						node.getAttributes().getNamedItem("field").getTextContent(), null, null);
 			}
 
+			if(node.getNodeName().equals("TLogSource")) {
+				buildDataSource(KeyFigureMetaData.TLG_SOURCE, keyfigure,node);
+			}
+
 //			if(node.getNodeName().equals("Converter")) {
 //				buildConverter(keyfigure,node);
 //			}
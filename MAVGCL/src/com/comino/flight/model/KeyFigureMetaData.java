@@ -33,11 +33,15 @@
 
 package com.comino.flight.model;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.comino.flight.model.converter.SourceConverter;
+import com.comino.flight.model.store.KeyFigureColumns;
 import com.comino.msp.model.DataModel;
 
 public class KeyFigureMetaData {
@@ -45,6 +49,14 @@ public class KeyFigureMetaData {
 	public static final int MSP_SOURCE = 1;
 	public static final int PX4_SOURCE = 2;
 	public static final int ULG_SOURCE = 3;
+	public static final int TLG_SOURCE = 4;
+
+	public static final int RESAMPLE_LAST   = 0;
+	public static final int RESAMPLE_LINEAR = 1;
+	public static final int RESAMPLE_MEAN   = 2;
+	public static final int RESAMPLE_MINMAX = 3;
+
+	private static final String[] RESAMPLE_NAMES = { "last", "linear", "mean", "minmax" };
 
 	public String desc1;
 	public String desc2;
@@ -55,6 +67,10 @@ public class KeyFigureMetaData {
 	public float  max;
 
 	private String key;
+	private transient int column = -1;
+	private transient int resample = RESAMPLE_LAST;
+
+	private transient DataSource mspSource = null;
 
 	private Map<Integer,DataSource> sources = new HashMap<Integer,DataSource>();
 
@@ -72,75 +88,107 @@ public class KeyFigureMetaData {
 		this.hash   = key.toLowerCase().hashCode();
 	}
 
+	public String getKey() {
+		return key;
+	}
+
+	public int getColumn() {
+		if(column < 0)
+			column = KeyFigureColumns.getInstance().getColumn(hash);
+		return column;
+	}
+
 	public void setBounds(float min, float max) {
 		this.min = min;
 		this.max = max;
 	}
 
+	/**
+	 * @return policy to reduce the samples of a log to the rows of the model
+	 */
+	public int getResample() {
+		return resample;
+	}
+
+	public void setResample(int resample) {
+		this.resample = resample;
+	}
+
+	public void setResample(String name) {
+		for(int i = 0; i < RESAMPLE_NAMES.length; i++) {
+			if(RESAMPLE_NAMES[i].equalsIgnoreCase(name.trim())) {
+				resample = i;
+				return;
+			}
+		}
+		System.err.println(key+": Resample policy "+name+" not available");
+	}
+
 	public void setSource(int type,String field, String class_c, String[] params) {
 		setSource(type,null,field,class_c,params);
 	}
 
 	public void setSource(int type, String class_n, String field, String class_c, String[] params) {
+		DataSource source = null;
 		if(class_c!=null) {
 			try {
 				SourceConverter conv = null;
 				Class<?> clazz = Class.forName(this.getClass().getPackage().getName()+".converter."+class_c);
 				conv = (SourceConverter) clazz.newInstance();
 				conv.setParameter(key,params);
-				sources.put(type, new DataSource(class_n,field,conv));
+				source = new DataSource(class_n,field,conv);
 			} catch(Exception e) {
 				System.err.println(this.getClass().getPackage().getName()+".converter."+type+" : "+e.getMessage());
+				return;
 			}
 		} else
-			sources.put(type, new DataSource(class_n,field,null));
+			source = new DataSource(class_n,field,null);
+
+		if(type==MSP_SOURCE) {
+			try {
+				source.accessor = bindMSPAccessor(class_n, field);
+				mspSource = source;
+			} catch(Exception e) {
+				System.err.println(key+": MSP field "+class_n+"."+field+" not available : "+e.getMessage());
+				return;
+			}
+		}
+		sources.put(type, source);
 	}
 
-	public float getValueFromMSPModel(DataModel m) throws Exception {
-		float value = 0;
-		DataSource source = sources.get(MSP_SOURCE);
-		Field mclass_field = m.getClass().getField(source.class_n);
-		Object mclass = mclass_field.get(m);
-		Field mfield_field = mclass.getClass().getField(source.field);
-		value = new Double(mfield_field.getDouble(mclass)).floatValue();
-		if(source.converter != null)
-			return source.converter.convert(value);
-		return value;
+	public boolean hasSource(int type) {
+		return sources.containsKey(type);
 	}
 
+	/**
+	 * @return field name of the source (e.g. topic.field for logs) or null
+	 */
+	public String getSourceField(int type) {
+		DataSource source = sources.get(type);
+		return source == null ? null : source.field;
+	}
 
-	public float getValueFromPX4Model(Map<String,Object> data) {
-		float value = 0;
-		DataSource source = sources.get(PX4_SOURCE);
-		Object o = data.get(source.field);
-		if(o instanceof Integer)
-			value = (float)(Integer)o;
-		else if(o instanceof Double)
-			value = ((Double)o).floatValue();
-		else
-			value = (float)(Float)o;
-
-		if(source.converter != null)
-			return source.converter.convert(value);
-		return value;
+	/**
+	 * @return converter of the source or null
+	 */
+	public SourceConverter getConverter(int type) {
+		DataSource source = sources.get(type);
+		return source == null ? null : source.converter;
 	}
 
-	public float getValueFromULogModel(Map<String,Object> data) {
+	public float getValueFromMSPModel(DataModel m) {
 		float value = 0;
-		DataSource source = sources.get(ULG_SOURCE);
-		Object o = data.get(source.field);
-		if(o instanceof Integer)
-			value = (float)(Integer)o;
-		else if(o instanceof Double)
-			value = ((Double)o).floatValue();
-		else
-			value = (float)(Float)o;
-
-		if(source.converter != null)
-			return source.converter.convert(value);
+		try {
+			value = (float)mspSource.accessor.invokeExact(m);
+		} catch(Throwable e) {
+			return 0;
+		}
+		if(mspSource.converter != null)
+			return mspSource.converter.convert(value);
 		return value;
 	}
 
+
 	public String toString() {
 		return desc1;
 	}
@@ -149,6 +197,16 @@ public class KeyFigureMetaData {
 		return desc1+": "+key+"("+hash+")";
 	}
 
+	// Resolves DataModel.<class_n>.<field> once into a (DataModel)float getter
+	private MethodHandle bindMSPAccessor(String class_n, String field) throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		Field segment_field = DataModel.class.getField(class_n);
+		Field value_field   = segment_field.getType().getField(field);
+		MethodHandle accessor = MethodHandles.filterReturnValue(
+				lookup.unreflectGetter(segment_field), lookup.unreflectGetter(value_field));
+		return MethodHandles.explicitCastArguments(accessor, MethodType.methodType(float.class, DataModel.class));
+	}
+
 	private class DataSource {
 
 		public DataSource(String class_n, String field, SourceConverter converter) {
@@ -160,6 +218,7 @@ public class KeyFigureMetaData {
 		public String class_n;
 		public String field;
 		public SourceConverter converter;
+		public transient MethodHandle accessor;
 	}
 
 
@@ -38,24 +38,37 @@ import net.objecthunter.exp4j.ExpressionBuilder;
 
 public class ExpressionConverter extends SourceConverter {
 
-	private Expression calc = null;
+	private volatile Expression calc = null;
 	private String kfname;
+	private String expression;
+
+	// Expressions keep their variables, each thread converting in parallel needs its own copy
+	private final ThreadLocal<Expression> local = ThreadLocal.withInitial(() -> new Expression(getExpression()));
 
 	@Override
 	public void setParameter(String kfname, String[] params) {
 		this.kfname = kfname;
+		this.expression = params[0];
 		Runnable r = new Runnable() {
 			public void run() {
-				calc = new ExpressionBuilder(params[0]).variable(kfname).build();
+				getExpression();
 			}
 		};
 		new Thread(r).start();
 	}
 
+	// built in background at startup, but a conversion may need it before
+	private synchronized Expression getExpression() {
+		if(calc == null)
+			calc = new ExpressionBuilder(expression).variable(kfname).build();
+		return calc;
+	}
+
 	@Override
 	public float convert(float val) {
-		calc.setVariable(kfname, val);
-		return (float)calc.evaluate();
+		Expression e = local.get();
+		e.setVariable(kfname, val);
+		return (float)e.evaluate();
 	}
 
 	public ExpressionConverter() {
@@ -34,14 +34,18 @@
 
 package com.comino.flight.model.service;
 
-import java.util.ArrayList;
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.LockSupport;
+
+import org.mavlink.messages.MAV_SEVERITY;
 
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataStore;
 import com.comino.flight.observables.StateProperties;
+import com.comino.flight.prefs.MAVPreferences;
+import com.comino.msp.log.MSPLogger;
 import com.comino.msp.model.DataModel;
 import com.comino.msp.utils.ExecutorService;
 
@@ -54,17 +58,31 @@ public class AnalysisModelService {
 	public static  final int COLLECTING     	= 2;
 	public static  final int POST_COLLECTING    = 3;
 
-	private static final int MODELCOLLECTOR_INTERVAL_US = 50000;
+	public static  final int[] COLLECTOR_RATES_HZ = { 20, 50, 100, 200, 250 };
+	public static  final int   DEFAULT_RATE_HZ    = 20;
+	public static  final int[] IMPORT_RATES_HZ    = { 0, 5, 10, 20, 50, 100, 200 };
+	public static  final int[] PAGE_CACHES_MB     = { 16, 32, 64, 128, 256, 512 };
+	public static  final int   DEFAULT_PAGE_CACHE_MB = 64;
 
 	private DataModel								model       = null;
 	private AnalysisDataModel				    	current     = null;
-	private ArrayList<AnalysisDataModel> 		    modelList   = null;
+	private volatile AnalysisDataStore 		        modelList   = null;
 	private StateProperties                         state       = null;
 
-	private int     mode = 0;
+	private volatile int mode = 0;
+
+	private volatile int collectorInterval_us = AnalysisDataStore.DEFAULT_INTERVAL_US;
+	private CycleTimer   collectorTimer       = new CycleTimer(collectorInterval_us);
 
 	private  int  totalTime_sec = 30;
 
+	private volatile Thread collector = null;
+
+	private File  spillFile       = null;
+	private int   memoryWindow_min = 0;
+	private int   importRate_hz    = 0;
+	private int   pageCache_mb     = DEFAULT_PAGE_CACHE_MB;
+
 	public static AnalysisModelService getInstance(DataModel model) {
 		if(instance==null)
 			instance = new AnalysisModelService(model);
@@ -77,15 +95,20 @@ public class AnalysisModelService {
 
 
 	private AnalysisModelService(DataModel model) {
-		this.modelList     = new ArrayList<AnalysisDataModel>();
+		this.modelList     = new AnalysisDataStore();
 		this.model         = model;
 		this.current       =  new AnalysisDataModel();
 		this.state         = StateProperties.getInstance();
+		setCollectorRate(MAVPreferences.getInstance().getInt(MAVPreferences.PREFS_COLLECTOR_RATE, DEFAULT_RATE_HZ));
+		this.modelList.setInterval_us(collectorInterval_us);
+		this.memoryWindow_min = MAVPreferences.getInstance().getInt(MAVPreferences.PREFS_MEMORY_WINDOW, 0);
+		this.importRate_hz    = MAVPreferences.getInstance().getInt(MAVPreferences.PREFS_IMPORT_RATE, 0);
+		setPageCache(MAVPreferences.getInstance().getInt(MAVPreferences.PREFS_PAGE_CACHE, DEFAULT_PAGE_CACHE_MB));
 		new Thread(new Converter()).start();
 	}
 
 
-	public List<AnalysisDataModel> getModelList() {
+	public AnalysisDataStore getModelList() {
 		return modelList;
 	}
 
@@ -105,25 +128,100 @@ public class AnalysisModelService {
 		}
 	}
 
+	/**
+	 * Interval between two rows of the current model list (either recorded or imported).
+	 */
 	public int getCollectorInterval_ms() {
-		return MODELCOLLECTOR_INTERVAL_US/1000;
+		int ms = modelList.getInterval_us() / 1000;
+		return ms < 1 ? 1 : ms;
+	}
+
+	public int getCollectorInterval_us() {
+		return collectorInterval_us;
+	}
+
+	/**
+	 * Sets the rate for recording and log import. Ignored while collecting.
+	 */
+	public boolean setCollectorRate(int rate_hz) {
+		if(mode!=STOPPED || rate_hz <= 0)
+			return false;
+		collectorInterval_us = 1000000 / rate_hz;
+		return true;
+	}
+
+	public int getCollectorRate() {
+		return 1000000 / collectorInterval_us;
+	}
+
+	/**
+	 * Cycle statistics of the running or last recording.
+	 */
+	public CycleTimer getCollectorStatistics() {
+		return collectorTimer;
+	}
+
+	/**
+	 * File the recording is spilled to when the in-memory window is exceeded.
+	 */
+	public void setSpillFile(File file) {
+		this.spillFile = file;
+	}
+
+	/**
+	 * Recorded minutes kept in memory; older data is spilled. 0 keeps all in memory.
+	 */
+	public void setMemoryWindow(int minutes) {
+		this.memoryWindow_min = minutes;
+	}
+
+	public int getMemoryWindow() {
+		return memoryWindow_min;
+	}
+
+	// the list has a single writer: wait until the collector has left
+	private void awaitCollector() {
+		Thread t = collector;
+		if(t == null || t == Thread.currentThread())
+			return;
+		boolean interrupted = false;
+		while(t.isAlive()) {
+			try {
+				t.join(1000);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+			if(t.isAlive())
+				System.err.println("Waiting for the collector to stop");
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void enableSpill() {
+		if(spillFile == null || memoryWindow_min <= 0)
+			return;
+		long rows = memoryWindow_min * 60000000L / collectorInterval_us;
+		modelList.setSpill(spillFile, (int)(rows / AnalysisDataStore.CHUNK_SIZE) + 1);
 	}
 
 	public boolean start() {
 
 		if(mode==PRE_COLLECTING) {
+			// promote the pre-trigger window to the recording; the collector
+			// releases the capacity limit as the only writer of the list
 			mode = COLLECTING;
 			return true;
 		}
 		if(mode==STOPPED) {
-			modelList.clear();
+			clearModelList();
 			mode = COLLECTING;
 
 
-			new Thread(new Collector(0)).start();
+			collector = new Thread(new Collector(0));
+			collector.start();
 		}
 		return mode != STOPPED;
-		//service = ExecutorService.get().scheduleAtFixedRate(new Collector(), 0, MODELCOLLECTOR_INTERVAL_US, TimeUnit.MICROSECONDS);
 	}
 
 
@@ -153,13 +251,73 @@ public class AnalysisModelService {
 
 	public void setModelList(List<AnalysisDataModel> list) {
 		mode = STOPPED;
+		awaitCollector();
+		modelList.setSpill(null, 0);
 		modelList.clear();
 		modelList.addAll(list);
+		modelList.setInterval_us(modelList.estimateInterval_us());
 	}
 
 	public void clearModelList() {
 		mode = STOPPED;
+		awaitCollector();
+		modelList.setSpill(null, 0);
 		modelList.clear();
+		modelList.setCapacity(0);
+		modelList.setInterval_us(collectorInterval_us);
+	}
+
+	/**
+	 * Clears the list for the import of a log, which is resampled at the
+	 * import rate or, if none is set, at the recording rate.
+	 */
+	public void clearModelListForImport() {
+		clearModelList();
+		if(importRate_hz > 0)
+			modelList.setInterval_us(1000000 / importRate_hz);
+	}
+
+	/**
+	 * Empty list for the import of a log in the background, resampled at the
+	 * import rate or, if none is set, at the recording rate.
+	 */
+	public AnalysisDataStore createImportList() {
+		AnalysisDataStore list = new AnalysisDataStore();
+		list.setInterval_us(importRate_hz > 0 ? 1000000 / importRate_hz : collectorInterval_us);
+		list.setPageBudget(pageCache_mb * 1024L * 1024L);
+		return list;
+	}
+
+	/**
+	 * Replaces the model list by a completely imported one. Readers see either
+	 * the previous or the new list, never a partially filled one.
+	 */
+	public void replaceModelList(AnalysisDataStore list) {
+		mode = STOPPED;
+		awaitCollector();
+		AnalysisDataStore previous = modelList;
+		modelList = list;
+		previous.setSpill(null, 0);
+		previous.clear();
+	}
+
+	/**
+	 * Memory for rows paged in from a model file or the spilled recording.
+	 */
+	public void setPageCache(int mb) {
+		this.pageCache_mb = Math.max(1, mb);
+		modelList.setPageBudget(pageCache_mb * 1024L * 1024L);
+	}
+
+	public int getPageCache() {
+		return pageCache_mb;
+	}
+
+	/**
+	 * @param rate_hz rows per second of imported logs, 0 to use the recording rate
+	 */
+	public void setImportRate(int rate_hz) {
+		this.importRate_hz = Math.max(0, rate_hz);
 	}
 
 	public void setTotalTimeSec(int totalTime) {
@@ -170,24 +328,44 @@ public class AnalysisModelService {
 		return totalTime_sec;
 	}
 
+	/**
+	 * Time index: row at or after the given time. Beyond the recorded rows the
+	 * index is extrapolated with the nominal interval.
+	 */
+	public int getIndexAt(long tms_us) {
+		int size = modelList.size();
+		int interval_us = modelList.getInterval_us();
+		if(size == 0)
+			return (int)(tms_us / interval_us);
+		long last = modelList.getLastTms();
+		if(tms_us > last)
+			return size - 1 + (int)((tms_us - last + interval_us - 1) / interval_us);
+		return modelList.indexOf(tms_us);
+	}
+
+	/**
+	 * Time of a row, extrapolated beyond the recorded rows.
+	 */
+	public long getTimeAt(int index) {
+		return modelList.getTimeAt(index);
+	}
+
 	public int calculateX0Index(double factor) {
-		int current_x0_pt = (int)(
-				( modelList.size()
-						- totalTime_sec *  1000f
-						/ getCollectorInterval_ms())
-				* factor);
+		if(modelList.size() == 0)
+			return 0;
 
-		if(current_x0_pt<0)
-			current_x0_pt = 0;
+		long first = modelList.getTms(0);
+		long span  = modelList.getLastTms() - first - totalTime_sec * 1000000L;
+		if(span <= 0)
+			return 0;
 
-		return current_x0_pt;
+		return modelList.indexOf(first + (long)(span * factor));
 	}
 
 	public int calculateX1Index(double factor) {
 
-		int current_x1_pt = calculateX0Index(factor) +
-				(int)(totalTime_sec *  1000f
-						/ getCollectorInterval_ms());
+		int current_x1_pt = getIndexAt(getTimeAt(calculateX0Index(factor))
+				+ totalTime_sec * 1000000L);
 
 		if(current_x1_pt>modelList.size()-1)
 			current_x1_pt = modelList.size()-1;
@@ -196,18 +374,16 @@ public class AnalysisModelService {
 	}
 
 	public long getTotalRecordingTimeMS() {
-		if(modelList.size()> 0)
-			return (modelList.get(modelList.size()-1).tms) / 1000;
-		else
-			return 0;
+		return modelList.getLastTms() / 1000;
 	}
 
 	public void start(int pre_sec) {
 		if(mode==STOPPED) {
-			modelList.clear();
+			clearModelList();
 
 			mode = PRE_COLLECTING;
-			new Thread(new Collector(pre_sec)).start();
+			collector = new Thread(new Collector(pre_sec));
+			collector.start();
 		}
 	}
 
@@ -225,8 +401,14 @@ public class AnalysisModelService {
 
 		@Override
 		public void run() {
-			long tms = 0;
+			long tms = 0; int interval_us = 0;
+			CycleTimer timer = null;
 			while(true) {
+				if(interval_us != collectorInterval_us) {
+					interval_us = collectorInterval_us;
+					timer = new CycleTimer(interval_us);
+					timer.start();
+				}
 				current.msg = null;
 				current.setValuesMSP(model, AnalysisDataModelMetaData.getInstance());
 				if(model.msg != null && model.msg.tms > tms) {
@@ -234,7 +416,7 @@ public class AnalysisModelService {
 					tms = current.msg.tms+100;
 				} else
 					current.msg = null;
-				LockSupport.parkNanos(MODELCOLLECTOR_INTERVAL_US*1000);
+				timer.await();
 			}
 		}
 	}
@@ -242,38 +424,33 @@ public class AnalysisModelService {
 
 	private class Collector implements Runnable {
 
-		int pre_delay_count=0; int count = 0;
-
 		public Collector(int pre_delay_sec) {
 			if(pre_delay_sec>0) {
 				mode = PRE_COLLECTING;
-				this.pre_delay_count = pre_delay_sec * 1000000 / MODELCOLLECTOR_INTERVAL_US;
+				modelList.setCapacity((int)(pre_delay_sec * 1000000L / collectorInterval_us));
 			}
 		}
 
 		@Override
 		public void run() {
+			CycleTimer timer = new CycleTimer(collectorInterval_us);
+			collectorTimer = timer;
 			long tms = System.nanoTime() / 1000;
 			state.getLogLoadedProperty().set(false);
 			state.getRecordingProperty().set(true);
+			timer.start();
+			boolean unbounded = false;
 			while(mode!=STOPPED) {
-				synchronized(this) {
-					AnalysisDataModel m = current.clone();
-					m.tms = System.nanoTime() / 1000 - tms;
-					modelList.add(m);
-					count++;
-				}
-				LockSupport.parkNanos(MODELCOLLECTOR_INTERVAL_US*1000);
-
-				if(mode==PRE_COLLECTING) {
-					int _delcount = count - pre_delay_count;
-					if(_delcount > 0) {
-						for(int i = 0; i < _delcount; i++ )
-							modelList.remove(0);
-					}
-
+				if(!unbounded && mode!=PRE_COLLECTING) {
+					modelList.setCapacity(0);
+					enableSpill();
+					unbounded = true;
 				}
+				modelList.append(System.nanoTime() / 1000 - tms, current);
+				timer.await();
 			}
+			MSPLogger.getInstance().writeLocalMsg("Recording stopped: "+timer,
+					timer.getOverruns() > 0 ? MAV_SEVERITY.MAV_SEVERITY_WARNING : MAV_SEVERITY.MAV_SEVERITY_INFO);
 	    	state.getRecordingProperty().set(false);
 		}
 
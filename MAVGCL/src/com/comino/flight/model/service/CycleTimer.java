@@ -0,0 +1,114 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deadline based cycle timer. Deadlines advance by a fixed interval, so
+ * the work time of a cycle does not accumulate as drift. Wakeup jitter and
+ * missed cycles (overruns) are measured.
+ */
+public class CycleTimer {
+
+	private final long interval_ns;
+
+	private long deadline_ns = 0;
+
+	private volatile long cycles       = 0;
+	private volatile long overruns     = 0;
+	private volatile long jitter_max   = 0;
+	private volatile long jitter_sum   = 0;
+
+	public CycleTimer(int interval_us) {
+		this.interval_ns = interval_us * 1000L;
+	}
+
+	public void start() {
+		cycles = 0; overruns = 0; jitter_max = 0; jitter_sum = 0;
+		deadline_ns = System.nanoTime() + interval_ns;
+	}
+
+	/**
+	 * Parks until the next deadline. If the caller was late by one or more
+	 * complete intervals, the missed deadlines are skipped and counted.
+	 */
+	public void await() {
+		long now;
+		while((now = System.nanoTime()) < deadline_ns)
+			LockSupport.parkNanos(deadline_ns - now);
+
+		long jitter = now - deadline_ns;
+		jitter_sum += jitter;
+		if(jitter > jitter_max)
+			jitter_max = jitter;
+		cycles++;
+
+		deadline_ns += interval_ns;
+		if(now >= deadline_ns) {
+			long missed = (now - deadline_ns) / interval_ns + 1;
+			overruns    += missed;
+			deadline_ns += missed * interval_ns;
+		}
+	}
+
+	public int getInterval_us() {
+		return (int)(interval_ns / 1000);
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public long getOverruns() {
+		return overruns;
+	}
+
+	public float getMeanJitter_us() {
+		long c = cycles;
+		if(c == 0)
+			return 0;
+		return jitter_sum / c / 1000f;
+	}
+
+	public float getMaxJitter_us() {
+		return jitter_max / 1000f;
+	}
+
+	public String toString() {
+		return String.format("%d cycles at %d us, jitter mean %.0f us max %.0f us, %d overruns",
+				cycles, getInterval_us(), getMeanJitter_us(), getMaxJitter_us(), overruns);
+	}
+}
@@ -0,0 +1,965 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+
+/**
+ * Columnar storage of recorded samples: one primitive float column per key figure
+ * and a long time column, organized in fixed size chunks. Column chunks are only
+ * allocated once a non-zero value is written to them.
+ *
+ * As a List, the store returns lightweight row views and copies added rows into
+ * the columns. Charts and exports should prefer the indexed read methods.
+ *
+ * The store has a single writer (the collector or a converter). Rows are written
+ * completely before the new state is published through a volatile field, so
+ * readers like the charts never block the writer and never see partial rows.
+ * The chunk directory and the window of rows are published together, so each
+ * read sees either the state before or after a change, also across clear().
+ *
+ * With a resident limit set, full chunks beyond the limit are spilled to a
+ * segment file and paged in again on access. A store may also be opened on a
+ * chunk source like a model file; then all chunks are paged in on access.
+ * Paged chunks are cached and evicted least recently used beyond a memory
+ * budget. A chunk that cannot be read is reported once and then read as a
+ * chunk without values.
+ *
+ * Log messages and status transitions are not stored per row but in sparse
+ * event tracks, stamped with the timestamp of the row they were recorded with.
+ */
+public class AnalysisDataStore extends AbstractList<AnalysisDataModel> implements RandomAccess {
+
+	public  static final int CHUNK_BITS = 10;
+	public  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	public  static final int DEFAULT_INTERVAL_US = 50000;
+
+	// published state read by all read methods
+	private volatile View view = new View(new Chunk[16], 0, 0, 0, null, null);
+
+	// writer side chunk directory, indexed by the absolute chunk number modulo its length
+	private Chunk[] chunks = new Chunk[16];
+
+	// writer side copy of the window
+	private int     size   = 0;
+	private int     offset = 0;
+
+	private volatile int interval_us = DEFAULT_INTERVAL_US;
+
+	private volatile int capacity    = 0;
+	private Chunk   spare       = null;
+	private Chunk   retired     = null;
+	private int     writeChunk  = -1;
+
+	private final EventTrack<LogMessage> messages = new EventTrack<LogMessage>();
+	private final EventTrack<Status>     states   = new EventTrack<Status>();
+
+	private final Map<Integer,MinMaxPyramid> pyramids = new ConcurrentHashMap<Integer,MinMaxPyramid>();
+	private int generation = 0;
+
+	private volatile int cursor = 0;
+
+	public  static final long DEFAULT_PAGE_BUDGET = 64L * 1024 * 1024;
+	private static final int  MIN_PAGED_CHUNKS    = 2;
+
+	private SegmentFile segments       = null;
+	private int         residentChunks = 0;
+	private int         firstResident  = 0;
+
+	private ChunkSource source = null;
+
+	private final Map<Chunk,Chunk> paged = new LinkedHashMap<Chunk,Chunk>(64, 0.75f, true);
+	private long          pagedBytes = 0;
+	private volatile long pageBudget = DEFAULT_PAGE_BUDGET;
+
+	public AnalysisDataStore() {
+		super();
+	}
+
+	/**
+	 * Nominal time between two rows.
+	 */
+	public int getInterval_us() {
+		return interval_us;
+	}
+
+	public void setInterval_us(int interval_us) {
+		this.interval_us = interval_us;
+	}
+
+	/**
+	 * Derives the nominal row interval from the stored timestamps, rounded to ms.
+	 */
+	public int estimateInterval_us() {
+		View v = view;
+		if(v.size < 2)
+			return interval_us;
+		long dt = (tms(v, v.size-1) - tms(v, 0)) / (v.size - 1);
+		int ms = (int)((dt + 500) / 1000);
+		return ms < 1 ? 1000 : ms * 1000;
+	}
+
+	/**
+	 * Limits the store to the most recent rows. Appending beyond the capacity
+	 * drops the oldest row, and released chunks are reused, so the store acts as
+	 * a fixed size ring buffer. Setting the capacity to 0 keeps all rows from now
+	 * on without copying the ones already stored. Writer side only.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+		if(capacity > 0 && size > capacity)
+			removeFirst(size - capacity);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Keeps at most the given number of chunks in memory; older chunks are moved
+	 * to a segment file and read back on access. A file of null or a limit of 0
+	 * keeps everything in memory. Writer side only.
+	 */
+	public void setSpill(File file, int residentChunks) {
+		closeSegments();
+		if(file == null || residentChunks <= 0) {
+			this.residentChunks = 0;
+			return;
+		}
+		try {
+			segments = new SegmentFile(file);
+			this.residentChunks = Math.max(2, residentChunks);
+			firstResident = offset >> CHUNK_BITS;
+			publish();
+		} catch (IOException e) {
+			System.err.println("Spilling to "+file.getName()+" not available: "+e.getMessage());
+			this.residentChunks = 0;
+		}
+	}
+
+	public boolean isSpilling() {
+		return segments != null;
+	}
+
+	/**
+	 * Replaces the rows by the rows of the source, which are paged in on access.
+	 * The rows are read only then; the events are kept in memory as usual. The
+	 * source is closed when the store is cleared.
+	 */
+	public void setSource(ChunkSource source) {
+		setSpill(null, 0);
+		clear();
+		int rows  = source.getRows();
+		int count = (rows + CHUNK_MASK) >> CHUNK_BITS;
+		Chunk[] dir = new Chunk[Math.max(16, Integer.highestOneBit(Math.max(1, count - 1)) << 1)];
+		for(int c = 0; c < count; c++)
+			dir[c] = new Chunk(c, 0, source.getFirstTms(c));
+		this.source = source;
+		chunks = dir;
+		size   = rows;
+		modCount++;
+		publish();
+	}
+
+	/**
+	 * @return true if the rows are paged in from a chunk source
+	 */
+	public boolean hasSource() {
+		return view.source != null;
+	}
+
+	/**
+	 * Memory for chunks paged in from the segment file or the chunk source.
+	 */
+	public void setPageBudget(long bytes) {
+		this.pageBudget = bytes;
+	}
+
+	public long getPagedBytes() {
+		synchronized(paged) {
+			return pagedBytes;
+		}
+	}
+
+	/**
+	 * Number of bytes moved to the segment file.
+	 */
+	public long getSpilledBytes() {
+		return segments == null ? 0 : segments.getSize();
+	}
+
+	@Override
+	public int size() {
+		return view.size;
+	}
+
+	@Override
+	public AnalysisDataModel get(int index) {
+		int size = size();
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		return new AnalysisDataModel(this,index);
+	}
+
+	@Override
+	public boolean add(AnalysisDataModel m) {
+		append(m.tms, m);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		size    = 0;
+		offset  = 0;
+		chunks  = new Chunk[16];
+		spare   = null;
+		retired = null;
+		writeChunk    = -1;
+		firstResident = 0;
+		messages.clear();
+		states.clear();
+		generation++;
+		// readers of the former state may still page in from the closed files
+		SegmentFile spilled = segments;
+		segments = null;
+		closeSource();
+		publish();
+		synchronized(paged) {
+			paged.clear();
+			pagedBytes = 0;
+		}
+		if(spilled != null) {
+			spilled.close();
+			setSpill(spilled.getFile(), residentChunks);
+		}
+		modCount++;
+	}
+
+	/**
+	 * Removes the oldest rows. Chunks that become unused are released and reused
+	 * once a further chunk has been started, so late readers still find valid data.
+	 */
+	public void removeFirst(int count) {
+		if(count <= 0)
+			return;
+		if(count >= size) {
+			clear();
+			return;
+		}
+		Chunk[] dir = chunks;
+		int from = offset >> CHUNK_BITS;
+		offset += count; size -= count;
+		publish();
+		int first = offset >> CHUNK_BITS;
+		for(int c = from; c < first; c++) {
+			Chunk chunk = dir[c & (dir.length - 1)];
+			if(chunk != null && !chunk.isSpilled()) {
+				spare   = retired;
+				retired = chunk;
+			}
+		}
+		firstResident = Math.max(firstResident, first);
+		messages.removeBefore(getTms(0));
+		states.removeBefore(getTms(0));
+		modCount++;
+	}
+
+	/**
+	 * Appends the values of the model as a new row with the given timestamp.
+	 * @return index of the new row
+	 */
+	public int append(long tms, AnalysisDataModel m) {
+		int p = size + offset;
+		int i = p & CHUNK_MASK;
+		if(i == 0 && segments != null)
+			spill(p >> CHUNK_BITS);
+		Chunk chunk = getOrCreateChunk(p >> CHUNK_BITS);
+
+		chunk.tms[i] = tms;
+		int count = Math.max(m.getColumnCount(), chunk.columns.length);
+		for(int c = 0; c < count; c++)
+			chunk.set(c, i, m.getColumnValue(c));
+		if(m.msg != null)
+			messages.add(tms, m.msg.clone());
+		if(m.status != null && (states.getLast() == null || !states.getLast().isEqual(m.status)))
+			states.add(tms, m.status.clone());
+
+		size++; modCount++;
+
+		if(capacity > 0 && size > capacity)
+			removeFirst(size - capacity);
+		else
+			publish();
+		return size - 1;
+	}
+
+	/**
+	 * Appends rows from column buffers, e.g. of a mapped model file, copying
+	 * whole chunk ranges instead of single values. Buffers are read from their
+	 * position on.
+	 *
+	 * @param count   number of rows
+	 * @param tms     timestamps of the rows
+	 * @param columns values of the rows by column, null for columns without values
+	 */
+	public void append(int count, LongBuffer tms, FloatBuffer[] columns) {
+		while(count > 0) {
+			int p = size + offset;
+			int i = p & CHUNK_MASK;
+			if(i == 0 && segments != null)
+				spill(p >> CHUNK_BITS);
+			Chunk chunk = getOrCreateChunk(p >> CHUNK_BITS);
+			int n = Math.min(count, CHUNK_SIZE - i);
+
+			tms.get(chunk.tms, i, n);
+			for(int c = 0; c < Math.max(columns.length, chunk.columns.length); c++) {
+				if(c < columns.length && columns[c] != null)
+					columns[c].get(chunk.column(c), i, n);
+				else if(c < chunk.columns.length && chunk.columns[c] != null)
+					Arrays.fill(chunk.columns[c], i, i + n, 0);   // reused chunk
+			}
+
+			size += n; count -= n; modCount++;
+			if(capacity > 0 && size > capacity)
+				removeFirst(size - capacity);
+			else
+				publish();
+		}
+	}
+
+	public long getTms(int index) {
+		return tms(view, index);
+	}
+
+	/**
+	 * Copies the timestamps of count rows starting at index.
+	 */
+	public void getTms(int index, long[] dest, int count) {
+		View v = view;
+		check(v, index, count);
+		for(int k = 0; k < count; ) {
+			int a = v.offset + index + k;
+			int n = Math.min(count - k, CHUNK_SIZE - (a & CHUNK_MASK));
+			System.arraycopy(chunk(v, a).tms, a & CHUNK_MASK, dest, k, n);
+			k += n;
+		}
+	}
+
+	/**
+	 * Copies the values of a column of count rows starting at index.
+	 *
+	 * @return false if all values are zero
+	 */
+	public boolean getValues(int index, int column, float[] dest, int count) {
+		View v = view;
+		check(v, index, count);
+		boolean present = false;
+		for(int k = 0; k < count; ) {
+			int a = v.offset + index + k;
+			int n = Math.min(count - k, CHUNK_SIZE - (a & CHUNK_MASK));
+			Chunk chunk = chunk(v, a);
+			if(column < chunk.columns.length && chunk.columns[column] != null) {
+				System.arraycopy(chunk.columns[column], a & CHUNK_MASK, dest, k, n);
+				present = true;
+			} else
+				Arrays.fill(dest, k, k + n, 0);
+			k += n;
+		}
+		if(present) {
+			for(int k = 0; k < count; k++)
+				if(dest[k] != 0)
+					return true;
+		}
+		return false;
+	}
+
+	public long getLastTms() {
+		View v = view;
+		if(v.size == 0)
+			return 0;
+		return tms(v, v.size-1);
+	}
+
+	/**
+	 * Time index: first row with a timestamp at or after tms, found by
+	 * interpolation from the last result and binary search (timestamps are
+	 * monotonic). Clamped to the last row; -1 if the store is empty.
+	 */
+	public int indexOf(long tms) {
+		View v = view;
+		int size = v.size;
+		if(size == 0)
+			return -1;
+		if(tms <= tms(v, 0))
+			return 0;
+		if(tms > tms(v, size-1))
+			return size-1;
+
+		int lo = 0, hi = size - 1;
+
+		// narrow the range around a guess next to the cached cursor
+		int cursor = Math.min(this.cursor, size - 1);
+		long tc = tms(v, cursor);
+		if(tc < tms) lo = cursor; else hi = cursor;
+		int guess = cursor + (int)((tms - tc) / interval_us);
+		guess = Math.max(lo, Math.min(hi, guess));
+		if(tms(v, guess) < tms) {
+			lo = guess;
+			for(int step = 1; lo + step < hi; step <<= 1) {
+				if(tms(v, lo + step) >= tms) { hi = lo + step; break; }
+				lo += step;
+			}
+		} else {
+			hi = guess;
+			for(int step = 1; hi - step > lo; step <<= 1) {
+				if(tms(v, hi - step) < tms) { lo = hi - step; break; }
+				hi -= step;
+			}
+		}
+
+		// invariant: tms(lo) < tms <= tms(hi)
+		while(hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if(tms(v, mid) < tms) lo = mid; else hi = mid;
+		}
+		this.cursor = hi;
+		return hi;
+	}
+
+	/**
+	 * Timestamp of the row; beyond the stored rows it is extrapolated with the
+	 * nominal interval.
+	 */
+	public long getTimeAt(int index) {
+		View v = view;
+		if(v.size == 0)
+			return (long)index * interval_us;
+		if(index < 0)
+			return tms(v, 0) + (long)index * interval_us;
+		if(index >= v.size)
+			return tms(v, v.size-1) + (long)(index - v.size + 1) * interval_us;
+		return tms(v, index);
+	}
+
+	/**
+	 * Timestamp of the row for drawing. Rows of chunks that are not in memory
+	 * are interpolated between the first timestamps of the chunk and the next
+	 * one instead of paging the chunk in.
+	 */
+	public long estimateTms(int index) {
+		View v = view;
+		check(v, index, 1);
+		int a = v.offset + index;
+		Chunk chunk = v.chunks[(a >> CHUNK_BITS) & (v.chunks.length - 1)];
+		if(chunk.isSpilled()) {
+			Chunk rows = resident(chunk);
+			if(rows == null) {
+				int next = ((a >> CHUNK_BITS) + 1) << CHUNK_BITS;
+				long end = next < v.offset + v.size
+						? firstTms(v.chunks[(next >> CHUNK_BITS) & (v.chunks.length - 1)])
+						: chunk.first + (long)CHUNK_SIZE * interval_us;
+				return chunk.first + (end - chunk.first) * (a & CHUNK_MASK) / CHUNK_SIZE;
+			}
+			chunk = rows;
+		}
+		return chunk.tms[a & CHUNK_MASK];
+	}
+
+	private static long firstTms(Chunk chunk) {
+		return chunk.isSpilled() ? chunk.first : chunk.tms[0];
+	}
+
+	public float getValue(int index, KeyFigureMetaData m) {
+		return getValue(index, m.getColumn());
+	}
+
+	public float getValue(int index, int column) {
+		return getValue(view, index, column);
+	}
+
+	float getValue(View v, int index, int column) {
+		if(column < 0)
+			return 0;
+		check(v, index, 1);
+		int a = v.offset + index;
+		return chunk(v, a).get(column, a & CHUNK_MASK);
+	}
+
+	public void setValue(int index, int column, float value) {
+		if(column < 0)
+			return;
+		View v = view;
+		check(v, index, 1);
+		int a = v.offset + index;
+		chunk(v, a).set(column, a & CHUNK_MASK, value);
+	}
+
+	/**
+	 * Minimum of the rows from..to (inclusive), taken from the min/max pyramid.
+	 */
+	public float getMin(int from, int to, KeyFigureMetaData m) {
+		return envelope(from, to, m)[0];
+	}
+
+	/**
+	 * Maximum of the rows from..to (inclusive), taken from the min/max pyramid.
+	 */
+	public float getMax(int from, int to, KeyFigureMetaData m) {
+		return envelope(from, to, m)[1];
+	}
+
+	/**
+	 * Value with the largest magnitude of the rows from..to (inclusive), so that
+	 * spikes survive decimation.
+	 */
+	public float getPeak(int from, int to, KeyFigureMetaData m) {
+		float[] e = envelope(from, to, m);
+		return Math.abs(e[1]) >= Math.abs(e[0]) ? e[1] : e[0];
+	}
+
+	private float[] envelope(int from, int to, KeyFigureMetaData m) {
+		int column = m.getColumn();
+		if(column < 0 || from > to)
+			return new float[2];
+		MinMaxPyramid pyramid = pyramids.get(column);
+		if(pyramid == null) {
+			pyramid = new MinMaxPyramid(column);
+			pyramids.put(column, pyramid);
+		}
+		return pyramid.query(this, Math.max(0, from), to);
+	}
+
+	/**
+	 * Current state for reads that must be consistent across several calls.
+	 */
+	View getView() {
+		return view;
+	}
+
+	/**
+	 * Min and max of a column in the rows a..b (absolute, inclusive), merged
+	 * into e = { min, max }. Unless exact is set, chunks that are not in memory
+	 * are not paged in, their rows are taken as the envelope of the chunk.
+	 */
+	void rowEnvelope(View v, int column, int a, int b, boolean exact, float[] e) {
+		for(int c = a >> CHUNK_BITS; c <= b >> CHUNK_BITS; c++) {
+			int from = Math.max(a, c << CHUNK_BITS), to = Math.min(b, (c << CHUNK_BITS) + CHUNK_MASK);
+			Chunk chunk = v.chunks[c & (v.chunks.length - 1)];
+			if(chunk.isSpilled()) {
+				Chunk rows = exact ? pageIn(v, chunk) : resident(chunk);
+				if(rows == null) {
+					merge(stubEnvelope(v, c, chunk), column, e);
+					continue;
+				}
+				chunk = rows;
+			}
+			chunk.envelope(column, from & CHUNK_MASK, to & CHUNK_MASK, e);
+		}
+	}
+
+	/**
+	 * Min and max of a column in all rows of the chunk c (absolute), merged
+	 * into e. Chunks that are not in memory are paged in only if their
+	 * envelope is neither known nor kept by the chunk source.
+	 */
+	void chunkEnvelope(View v, int c, int column, float[] e) {
+		Chunk chunk = v.chunks[c & (v.chunks.length - 1)];
+		if(chunk.isSpilled())
+			merge(stubEnvelope(v, c, chunk), column, e);
+		else
+			chunk.envelope(column, 0, CHUNK_MASK, e);
+	}
+
+	private float[][] stubEnvelope(View v, int c, Chunk stub) {
+		float[][] envelope = stub.envelope;
+		if(envelope == null && v.source != null)
+			envelope = stub.envelope = v.source.getEnvelope((int)stub.position);
+		if(envelope == null) {
+			Chunk chunk = pageIn(v, stub);
+			envelope = stub.envelope = chunk.envelope(Math.min(CHUNK_SIZE, v.offset + v.size - (c << CHUNK_BITS)));
+		}
+		return envelope;
+	}
+
+	private static void merge(float[][] envelope, int column, float[] e) {
+		float lo = column < envelope[0].length ? envelope[0][column] : 0;
+		float hi = column < envelope[1].length ? envelope[1][column] : 0;
+		if(lo < e[0]) e[0] = lo;
+		if(hi > e[1]) e[1] = hi;
+	}
+
+	/**
+	 * @return message recorded with the row or null
+	 */
+	public LogMessage getMessage(int index) {
+		if(messages.size() == 0)
+			return null;
+		return messages.getAt(getTms(index));
+	}
+
+	/**
+	 * Attaches a message to the row.
+	 */
+	public void setMessage(int index, LogMessage msg) {
+		if(msg != null)
+			messages.add(getTms(index), msg);
+	}
+
+	/**
+	 * @return status valid at the row or null
+	 */
+	public Status getStatus(int index) {
+		if(states.size() == 0)
+			return null;
+		return states.getLatest(getTms(index));
+	}
+
+	/**
+	 * Log messages, ordered by the timestamp of their row.
+	 */
+	public EventTrack<LogMessage> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Status transitions, ordered by the timestamp of their row.
+	 */
+	public EventTrack<Status> getStates() {
+		return states;
+	}
+
+	private void publish() {
+		view = new View(chunks, offset, size, generation, source, segments);
+	}
+
+	private long tms(View v, int index) {
+		check(v, index, 1);
+		int a = v.offset + index;
+		return chunk(v, a).tms[a & CHUNK_MASK];
+	}
+
+	private static void check(View v, int index, int count) {
+		if(index < 0 || count < 0 || index + count > v.size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+v.size);
+	}
+
+	private Chunk chunk(View v, int absolute) {
+		Chunk chunk = v.chunks[(absolute >> CHUNK_BITS) & (v.chunks.length - 1)];
+		if(chunk.isSpilled())
+			return pageIn(v, chunk);
+		return chunk;
+	}
+
+	private void spill(int current) {
+		Chunk[] dir = chunks;
+		while(current - firstResident >= residentChunks) {
+			int slot = firstResident & (dir.length - 1);
+			Chunk chunk = dir[slot];
+			if(chunk != null && !chunk.isSpilled()) {
+				try {
+					ByteBuffer buffer = chunk.encode();
+					int length = buffer.remaining();
+					Chunk stub = new Chunk(segments.write(buffer), length, chunk.tms[0]);
+					stub.envelope = chunk.envelope(CHUNK_SIZE);
+					dir[slot] = stub;
+				} catch (IOException e) {
+					System.err.println("Spilling recording failed: "+e.getMessage());
+					closeSegments();
+					residentChunks = 0;
+					return;
+				}
+			}
+			firstResident++;
+		}
+	}
+
+	private Chunk pageIn(View v, Chunk stub) {
+		synchronized(paged) {
+			if(stub.missing != null)
+				return stub.missing;
+			Chunk chunk = paged.get(stub);
+			if(chunk == null) {
+				chunk = new Chunk();
+				try {
+					if(v.source != null)
+						chunk.columns = v.source.readChunk((int)stub.position, chunk.tms);
+					else
+						chunk.decode(v.segments.read(stub.position, stub.length));
+				} catch (IOException e) {
+					// a reader of a cleared state fails as its files are closed
+					if(v.generation != view.generation)
+						return missing(stub);
+					System.err.println("Reading "+(v.source != null ? "model file" : "spilled recording")
+							+" failed: "+e.getMessage());
+					return stub.missing = missing(stub);
+				}
+				if(v.generation != view.generation)
+					return chunk;
+				paged.put(stub, chunk);
+				pagedBytes += chunk.getBytes();
+				evict();
+			}
+			return chunk;
+		}
+	}
+
+	// the paged in rows of the stub, null if not in memory
+	private Chunk resident(Chunk stub) {
+		synchronized(paged) {
+			return stub.missing != null ? stub.missing : paged.get(stub);
+		}
+	}
+
+	// rows without values in place of a chunk that cannot be read
+	private Chunk missing(Chunk stub) {
+		Chunk chunk = new Chunk();
+		for(int i = 0; i < CHUNK_SIZE; i++)
+			chunk.tms[i] = stub.first + (long)i * interval_us;
+		return chunk;
+	}
+
+	// least recently used first
+	private void evict() {
+		Iterator<Chunk> it = paged.values().iterator();
+		while(pagedBytes > pageBudget && paged.size() > MIN_PAGED_CHUNKS) {
+			pagedBytes -= it.next().getBytes();
+			it.remove();
+		}
+	}
+
+	private void closeSource() {
+		ChunkSource s = source;
+		source = null;
+		if(s != null) {
+			try {
+				s.close();
+			} catch (IOException e) { }
+		}
+	}
+
+	private void closeSegments() {
+		if(segments != null) {
+			segments.close();
+			segments = null;
+		}
+	}
+
+	private Chunk getOrCreateChunk(int c) {
+		Chunk[] dir = chunks;
+		int first = offset >> CHUNK_BITS;
+		if(c - first >= dir.length) {
+			// grow the directory, it is published with the first row in it
+			Chunk[] grown = new Chunk[dir.length * 2];
+			for(int k = first; k < c; k++)
+				grown[k & (grown.length - 1)] = dir[k & (dir.length - 1)];
+			chunks = dir = grown;
+		}
+		if(c != writeChunk) {
+			Chunk chunk = spare != null ? spare : new Chunk();
+			spare = null;
+			dir[c & (dir.length - 1)] = chunk;
+			writeChunk = c;
+		}
+		return dir[c & (dir.length - 1)];
+	}
+
+	/**
+	 * Published state: the chunk directory with the window of rows in it, and
+	 * the files stubs of the directory are paged in from.
+	 */
+	static class View {
+
+		final Chunk[]     chunks;
+		final int         offset;
+		final int         size;
+		final int         generation;
+		final ChunkSource source;
+		final SegmentFile segments;
+
+		View(Chunk[] chunks, int offset, int size, int generation, ChunkSource source, SegmentFile segments) {
+			this.chunks     = chunks;
+			this.offset     = offset;
+			this.size       = size;
+			this.generation = generation;
+			this.source     = source;
+			this.segments   = segments;
+		}
+	}
+
+	private static class Chunk {
+
+		long[]         tms;
+		float[][]      columns;
+
+		long           position = -1;
+		int            length   = 0;
+		long           first    = 0;
+		Chunk          missing  = null;
+
+		// of a stub: min and max by column, null until known
+		volatile float[][] envelope = null;
+
+		Chunk() {
+			tms     = new long[CHUNK_SIZE];
+			columns = new float[0][];
+		}
+
+		// stub of a chunk in the segment file or the chunk source
+		Chunk(long position, int length, long first) {
+			this.position = position;
+			this.length   = length;
+			this.first    = first;
+		}
+
+		boolean isSpilled() {
+			return position >= 0;
+		}
+
+		long getBytes() {
+			long bytes = 8L * tms.length;
+			for(float[] column : columns)
+				if(column != null) bytes += 4L * column.length;
+			return bytes;
+		}
+
+		ByteBuffer encode() {
+			int present = 0;
+			for(float[] column : columns)
+				if(column != null) present++;
+			ByteBuffer buffer = ByteBuffer.allocate(4 + columns.length + CHUNK_SIZE * 8 + present * CHUNK_SIZE * 4);
+			buffer.putInt(columns.length);
+			for(float[] column : columns)
+				buffer.put((byte)(column != null ? 1 : 0));
+			buffer.asLongBuffer().put(tms);
+			buffer.position(buffer.position() + CHUNK_SIZE * 8);
+			for(float[] column : columns) {
+				if(column == null)
+					continue;
+				buffer.asFloatBuffer().put(column);
+				buffer.position(buffer.position() + CHUNK_SIZE * 4);
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		void decode(ByteBuffer buffer) {
+			columns = new float[buffer.getInt()][];
+			boolean[] present = new boolean[columns.length];
+			for(int c = 0; c < columns.length; c++)
+				present[c] = buffer.get() != 0;
+			buffer.asLongBuffer().get(tms);
+			buffer.position(buffer.position() + CHUNK_SIZE * 8);
+			for(int c = 0; c < columns.length; c++) {
+				if(!present[c])
+					continue;
+				columns[c] = new float[CHUNK_SIZE];
+				buffer.asFloatBuffer().get(columns[c]);
+				buffer.position(buffer.position() + CHUNK_SIZE * 4);
+			}
+		}
+
+		// min and max of the rows from..to of a column, merged into e
+		void envelope(int column, int from, int to, float[] e) {
+			float lo = e[0], hi = e[1];
+			if(column >= columns.length || columns[column] == null) {
+				lo = Math.min(lo, 0);
+				hi = Math.max(hi, 0);
+			} else {
+				float[] values = columns[column];
+				for(int i = from; i <= to; i++) {
+					if(values[i] < lo) lo = values[i];
+					if(values[i] > hi) hi = values[i];
+				}
+			}
+			e[0] = lo; e[1] = hi;
+		}
+
+		// min and max by column of the first rows
+		float[][] envelope(int rows) {
+			float[][] envelope = new float[2][columns.length];
+			float[] e = new float[2];
+			for(int c = 0; c < columns.length; c++) {
+				e[0] = Float.MAX_VALUE; e[1] = -Float.MAX_VALUE;
+				envelope(c, 0, rows - 1, e);
+				envelope[0][c] = e[0];
+				envelope[1][c] = e[1];
+			}
+			return envelope;
+		}
+
+		float get(int column, int i) {
+			if(column >= columns.length || columns[column] == null)
+				return 0;
+			return columns[column][i];
+		}
+
+		float[] column(int column) {
+			if(column >= columns.length)
+				columns = Arrays.copyOf(columns, KeyFigureColumns.getInstance().getCount());
+			if(columns[column] == null)
+				columns[column] = new float[CHUNK_SIZE];
+			return columns[column];
+		}
+
+		void set(int column, int i, float value) {
+			if(column >= columns.length)
+				columns = Arrays.copyOf(columns, KeyFigureColumns.getInstance().getCount());
+			if(columns[column] == null) {
+				if(value == 0)
+					return;
+				columns[column] = new float[CHUNK_SIZE];
+			}
+			columns[column][i] = value;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Rows of a store that are kept outside of memory, e.g. in a model file, and
+ * paged in chunk by chunk on access. All chunks but the last have
+ * {@link AnalysisDataStore#CHUNK_SIZE} rows.
+ */
+public interface ChunkSource extends Closeable {
+
+	/**
+	 * @return number of rows
+	 */
+	int getRows();
+
+	/**
+	 * @return timestamp of the first row of the chunk
+	 */
+	long getFirstTms(int chunk);
+
+	/**
+	 * Reads the rows of a chunk. May be called concurrently.
+	 *
+	 * @param tms  receives the timestamps of the rows
+	 * @return values by store column, each CHUNK_SIZE long; null for columns without values
+	 */
+	float[][] readChunk(int chunk, long[] tms) throws IOException;
+
+	/**
+	 * @return min and max by store column of the rows of the chunk, null if
+	 *         not known without reading the chunk
+	 */
+	float[][] getEnvelope(int chunk);
+
+}
@@ -0,0 +1,222 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.util.Arrays;
+
+/**
+ * Sparse, time ordered track of events (log messages, status transitions) with
+ * binary search lookup by timestamp. Single writer; every change publishes an
+ * immutable snapshot, so readers do not need to lock. Readers using several
+ * indexes take one snapshot, so that indexes and events belong together.
+ */
+public class EventTrack<T> {
+
+	private volatile Snapshot<T> snapshot = new Snapshot<T>(new long[16], new Object[16], 0);
+
+	/**
+	 * @return current state of the track
+	 */
+	public Snapshot<T> snapshot() {
+		return snapshot;
+	}
+
+	public int size() {
+		return snapshot.size;
+	}
+
+	public long getTms(int index) {
+		return snapshot.getTms(index);
+	}
+
+	public T get(int index) {
+		return snapshot.get(index);
+	}
+
+	/**
+	 * Adds an event, keeping the track ordered. Events with equal timestamps
+	 * stay in insertion order.
+	 */
+	public void add(long t, T event) {
+		Snapshot<T> s = snapshot;
+		long[]   tms    = s.tms;
+		Object[] events = s.events;
+		int n = s.size;
+		int i = n;
+		if(n > 0 && tms[n-1] > t)
+			i = s.indexAfter(t);
+
+		if(i == n && n < tms.length) {
+			// beyond the size of published snapshots
+			tms[n] = t; events[n] = event;
+		} else {
+			// grow or insert into copies, so readers keep a consistent view
+			int length = n < tms.length ? tms.length : tms.length * 2;
+			long[]   nt = new long[length];
+			Object[] ne = new Object[length];
+			System.arraycopy(tms, 0, nt, 0, i);
+			System.arraycopy(events, 0, ne, 0, i);
+			System.arraycopy(tms, i, nt, i+1, n-i);
+			System.arraycopy(events, i, ne, i+1, n-i);
+			nt[i] = t; ne[i] = event;
+			tms = nt; events = ne;
+		}
+		snapshot = new Snapshot<T>(tms, events, n + 1);
+	}
+
+	/**
+	 * @return index of the first event at or after t; size() if there is none
+	 */
+	public int indexOf(long t) {
+		return snapshot.indexOf(t);
+	}
+
+	/**
+	 * @return index of the first event after t; size() if there is none
+	 */
+	public int indexAfter(long t) {
+		return snapshot.indexAfter(t);
+	}
+
+	/**
+	 * @return first event exactly at t or null
+	 */
+	public T getAt(long t) {
+		return snapshot.getAt(t);
+	}
+
+	/**
+	 * @return latest event at or before t (e.g. the status valid at t) or null
+	 */
+	public T getLatest(long t) {
+		return snapshot.getLatest(t);
+	}
+
+	/**
+	 * @return latest event of the track or null
+	 */
+	public T getLast() {
+		return snapshot.getLast();
+	}
+
+	/**
+	 * Drops all events before t.
+	 */
+	public void removeBefore(long t) {
+		Snapshot<T> s = snapshot;
+		if(s.size == 0 || s.tms[0] >= t)
+			return;
+		int i = s.indexOf(t);
+		long[]   nt = Arrays.copyOfRange(s.tms, i, i + s.tms.length);
+		Object[] ne = Arrays.copyOfRange(s.events, i, i + s.events.length);
+		snapshot = new Snapshot<T>(nt, ne, s.size - i);
+	}
+
+	public void clear() {
+		Snapshot<T> s = snapshot;
+		snapshot = new Snapshot<T>(new long[s.tms.length], new Object[s.events.length], 0);
+	}
+
+	/**
+	 * Immutable state of the track. The writer only appends to the arrays
+	 * beyond the size of the snapshot.
+	 */
+	public static final class Snapshot<T> {
+
+		private final long[]   tms;
+		private final Object[] events;
+		private final int      size;
+
+		private Snapshot(long[] tms, Object[] events, int size) {
+			this.tms    = tms;
+			this.events = events;
+			this.size   = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getTms(int index) {
+			check(index);
+			return tms[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			check(index);
+			return (T)events[index];
+		}
+
+		public int indexOf(long t) {
+			int lo = 0, hi = size;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(tms[mid] < t) lo = mid + 1; else hi = mid;
+			}
+			return lo;
+		}
+
+		public int indexAfter(long t) {
+			int lo = 0, hi = size;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(tms[mid] <= t) lo = mid + 1; else hi = mid;
+			}
+			return lo;
+		}
+
+		public T getAt(long t) {
+			int i = indexOf(t);
+			if(i < size && tms[i] == t)
+				return get(i);
+			return null;
+		}
+
+		public T getLatest(long t) {
+			int i = indexAfter(t);
+			return i > 0 ? get(i-1) : null;
+		}
+
+		public T getLast() {
+			return size > 0 ? get(size-1) : null;
+		}
+
+		private void check(int index) {
+			if(index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Event "+index+" of "+size);
+		}
+	}
+}
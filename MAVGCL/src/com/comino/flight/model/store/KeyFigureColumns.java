@@ -0,0 +1,92 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a stable column slot to every key figure hash. Slots are never
+ * reused, so rows and stores remain valid if the meta data is reloaded.
+ */
+public class KeyFigureColumns {
+
+	private static KeyFigureColumns instance = new KeyFigureColumns();
+
+	private final Map<Integer,Integer> columns = new ConcurrentHashMap<Integer,Integer>();
+	private volatile int[] hashes = new int[0];
+
+	public static KeyFigureColumns getInstance() {
+		return instance;
+	}
+
+	private KeyFigureColumns() {
+
+	}
+
+	public int getColumn(int hash) {
+		Integer column = columns.get(hash);
+		if(column!=null)
+			return column;
+		return register(hash);
+	}
+
+	public int findColumn(int hash) {
+		Integer column = columns.get(hash);
+		if(column!=null)
+			return column;
+		return -1;
+	}
+
+	public int getHash(int column) {
+		return hashes[column];
+	}
+
+	public int getCount() {
+		return hashes.length;
+	}
+
+	private synchronized int register(int hash) {
+		Integer column = columns.get(hash);
+		if(column!=null)
+			return column;
+		int[] h = Arrays.copyOf(hashes, hashes.length+1);
+		h[hashes.length] = hash;
+		hashes = h;
+		columns.put(hash, hashes.length-1);
+		return hashes.length-1;
+	}
+}
@@ -0,0 +1,157 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+/**
+ * Min/max envelope of one column at 2^level chunk steps. The base level holds
+ * the envelope of each complete chunk, taken from the chunk in memory or from
+ * the envelope kept with a spilled or paged chunk, so building it reads no
+ * rows that are not in memory. Levels are extended incrementally as chunks are
+ * completed, so an imported log is built on first use and a recording is
+ * extended as it grows. Rows of a query outside of complete chunks are taken
+ * from the rows in memory.
+ */
+class MinMaxPyramid {
+
+	private static final int LEVELS = 24;
+
+	// ranges below are read exactly, paging in chunks that are not in memory
+	private static final int EXACT_ROWS = AnalysisDataStore.CHUNK_SIZE / 4;
+
+	private final int     column;
+
+	private final float[][] min   = new float[LEVELS][];
+	private final float[][] max   = new float[LEVELS][];
+	private final int[]     count = new int[LEVELS];
+
+	private int generation = -1;
+	private int first      = -1;
+
+	private final float[] e = new float[2];
+
+	MinMaxPyramid(int column) {
+		this.column = column;
+	}
+
+	/**
+	 * Min and max of the rows from..to (inclusive) in O(log n) chunk steps.
+	 * Short ranges are read from the rows. For longer ranges, partial chunks
+	 * at the bounds that are not in memory count as whole, so the result may
+	 * include values of up to one chunk beyond each bound.
+	 * @return { min, max }
+	 */
+	synchronized float[] query(AnalysisDataStore store, int from, int to) {
+		AnalysisDataStore.View v = store.getView();
+		to = Math.min(to, v.size - 1);
+		if(from > to)
+			return new float[2];
+		update(store, v);
+
+		e[0] = Float.MAX_VALUE; e[1] = -Float.MAX_VALUE;
+		int a = v.offset + from, b = v.offset + to;
+
+		// complete chunks within the range
+		int ca = Math.max(first, (a + AnalysisDataStore.CHUNK_SIZE - 1) >> AnalysisDataStore.CHUNK_BITS);
+		int cb = Math.min(first + count[0], (b + 1) >> AnalysisDataStore.CHUNK_BITS);
+		if(ca >= cb) {
+			store.rowEnvelope(v, column, a, b, b - a < EXACT_ROWS, e);
+			return new float[] { e[0], e[1] };
+		}
+		if(a < ca << AnalysisDataStore.CHUNK_BITS)
+			store.rowEnvelope(v, column, a, (ca << AnalysisDataStore.CHUNK_BITS) - 1, false, e);
+		if(b >= cb << AnalysisDataStore.CHUNK_BITS)
+			store.rowEnvelope(v, column, cb << AnalysisDataStore.CHUNK_BITS, b, false, e);
+
+		int i = ca - first, j = cb - first;
+		for(int l = 0; i < j; l++) {
+			if(l == LEVELS - 1) {
+				for(int k = i; k < j; k++)
+					include(l, k);
+				break;
+			}
+			if((i & 1) == 1) include(l, i++);
+			if((j & 1) == 1) include(l, --j);
+			i >>= 1; j >>= 1;
+		}
+		return new float[] { e[0], e[1] };
+	}
+
+	private void include(int level, int i) {
+		if(min[level][i] < e[0]) e[0] = min[level][i];
+		if(max[level][i] > e[1]) e[1] = max[level][i];
+	}
+
+	private void update(AnalysisDataStore store, AnalysisDataStore.View v) {
+		int first = (v.offset + AnalysisDataStore.CHUNK_SIZE - 1) >> AnalysisDataStore.CHUNK_BITS;
+		int n = Math.max(0, ((v.offset + v.size) >> AnalysisDataStore.CHUNK_BITS) - first);
+		if(generation != v.generation || this.first != first || n < count[0]) {
+			generation = v.generation;
+			this.first = first;
+			for(int l = 0; l < LEVELS; l++) {
+				count[l] = 0; min[l] = null; max[l] = null;
+			}
+		}
+		for(int l = 0; l < LEVELS; l++) {
+			int target = n >> l;
+			if(target == 0)
+				break;
+			if(min[l] == null || min[l].length < target) {
+				int length = Math.max(target, min[l] == null ? 16 : min[l].length * 2);
+				min[l] = grow(min[l], length);
+				max[l] = grow(max[l], length);
+			}
+			for(int i = count[l]; i < target; i++) {
+				if(l == 0) {
+					e[0] = Float.MAX_VALUE; e[1] = -Float.MAX_VALUE;
+					store.chunkEnvelope(v, first + i, column, e);
+					min[0][i] = e[0];
+					max[0][i] = e[1];
+				} else {
+					int k = i << 1;
+					min[l][i] = Math.min(min[l-1][k], min[l-1][k+1]);
+					max[l][i] = Math.max(max[l-1][k], max[l-1][k+1]);
+				}
+			}
+			count[l] = target;
+		}
+	}
+
+	private static float[] grow(float[] a, int length) {
+		float[] n = new float[length];
+		if(a != null)
+			System.arraycopy(a, 0, n, 0, a.length);
+		return n;
+	}
+}
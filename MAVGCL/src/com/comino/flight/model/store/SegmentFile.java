@@ -0,0 +1,99 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append only file holding chunks that were spilled from memory. Reads and
+ * writes are positional, so the collector can spill while the UI pages in.
+ */
+public class SegmentFile {
+
+	private final File        file;
+	private RandomAccessFile  raf     = null;
+	private FileChannel       channel = null;
+	private long              end     = 0;
+
+	public SegmentFile(File file) throws IOException {
+		this.file = file;
+		if(file.getParentFile()!=null)
+			file.getParentFile().mkdirs();
+		this.raf     = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		this.channel.truncate(0);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Appends the remaining bytes of the buffer.
+	 * @return file position of the written block
+	 */
+	public synchronized long write(ByteBuffer buffer) throws IOException {
+		long position = end;
+		while(buffer.hasRemaining())
+			end += channel.write(buffer, end);
+		return position;
+	}
+
+	public ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of segment file "+file.getName());
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public long getSize() {
+		return end;
+	}
+
+	public void close() {
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) { }
+		file.delete();
+	}
+}
@@ -47,6 +47,10 @@ public class MAVPreferences {
 	public final static String LINECHART_FIG_1  = "LINECHARTFIG1";
 	public final static String LINECHART_FIG_2  = "LINECHARTFIG2";
 	public final static String LINECHART_FIG_3  = "LINECHARTFIG3";
+	public final static String PREFS_COLLECTOR_RATE = "COLLECTORRATE";
+	public final static String PREFS_MEMORY_WINDOW  = "MEMORYWINDOW";
+	public final static String PREFS_IMPORT_RATE    = "IMPORTRATE";
+	public final static String PREFS_PAGE_CACHE     = "PAGECACHE";
 
 	private static Preferences prefs = null;
 
@@ -38,6 +38,7 @@ import java.io.IOException;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
+import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mav.control.IMAVController;
 import com.comino.msp.log.MSPLogger;
@@ -48,6 +49,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.TextField;
@@ -60,6 +62,7 @@ public class PreferencesDialog  {
 	private static final String DEF_IP_ADDRESS 		= "172.168.178.1";
 	private static final String DEF_IP_PORT 		= "14555";
 	private static final String DEF_VIDEO_URL       =  "http://camera1.mairie-brest.fr/mjpg/video.mjpg?resolution=320x240";
+	private static final int[]  MEMORY_WINDOWS_MIN  = { 0, 5, 15, 30, 60 };
 
 
 	private Dialog<Boolean> prefDialog;
@@ -82,6 +85,18 @@ public class PreferencesDialog  {
 	@FXML
 	private CheckBox autosave;
 
+	@FXML
+	private ChoiceBox<Integer> rate;
+
+	@FXML
+	private ChoiceBox<Integer> window;
+
+	@FXML
+	private ChoiceBox<Integer> import_rate;
+
+	@FXML
+	private ChoiceBox<Integer> page_cache;
+
 	private IMAVController control;
 	private Preferences userPrefs;
 
@@ -105,6 +120,20 @@ public class PreferencesDialog  {
 
 		prefDialog.getDialogPane().setContent(dialog);
 
+		for(int r : AnalysisModelService.COLLECTOR_RATES_HZ)
+			rate.getItems().add(r);
+
+		// 0: keep complete recording in memory
+		for(int w : MEMORY_WINDOWS_MIN)
+			window.getItems().add(w);
+
+		// 0: resample imported logs at the recording rate
+		for(int r : AnalysisModelService.IMPORT_RATES_HZ)
+			import_rate.getItems().add(r);
+
+		for(int c : AnalysisModelService.PAGE_CACHES_MB)
+			page_cache.getItems().add(c);
+
 		path.setEditable(true);
 		path.setOnShowing(event -> {
 			DirectoryChooser dir = new DirectoryChooser();
@@ -141,6 +170,16 @@ public class PreferencesDialog  {
 		ip_port.setText(userPrefs.get(MAVPreferences.PREFS_IP_PORT, DEF_IP_PORT));
 		video.setText(userPrefs.get(MAVPreferences.PREFS_VIDEO,DEF_VIDEO_URL));
 		path.getEditor().setText(userPrefs.get(MAVPreferences.PREFS_DIR,System.getProperty("user.home")));
+		rate.getSelectionModel().select(Integer.valueOf(
+				userPrefs.getInt(MAVPreferences.PREFS_COLLECTOR_RATE, AnalysisModelService.DEFAULT_RATE_HZ)));
+		rate.setDisable(AnalysisModelService.getInstance().isCollecting());
+		window.getSelectionModel().select(Integer.valueOf(
+				userPrefs.getInt(MAVPreferences.PREFS_MEMORY_WINDOW, 0)));
+		window.setDisable(AnalysisModelService.getInstance().isCollecting());
+		import_rate.getSelectionModel().select(Integer.valueOf(
+				userPrefs.getInt(MAVPreferences.PREFS_IMPORT_RATE, 0)));
+		page_cache.getSelectionModel().select(Integer.valueOf(
+				userPrefs.getInt(MAVPreferences.PREFS_PAGE_CACHE, AnalysisModelService.DEFAULT_PAGE_CACHE_MB)));
 
 		if(prefDialog.showAndWait().get().booleanValue()) {
 
@@ -148,6 +187,22 @@ public class PreferencesDialog  {
 			userPrefs.put(MAVPreferences.PREFS_IP_PORT, ip_port.getText());
 			userPrefs.put(MAVPreferences.PREFS_VIDEO,video.getText());
 			userPrefs.put(MAVPreferences.PREFS_DIR,path.getEditor().getText());
+			if(rate.getValue()!=null) {
+				userPrefs.putInt(MAVPreferences.PREFS_COLLECTOR_RATE, rate.getValue());
+				AnalysisModelService.getInstance().setCollectorRate(rate.getValue());
+			}
+			if(window.getValue()!=null) {
+				userPrefs.putInt(MAVPreferences.PREFS_MEMORY_WINDOW, window.getValue());
+				AnalysisModelService.getInstance().setMemoryWindow(window.getValue());
+			}
+			if(import_rate.getValue()!=null) {
+				userPrefs.putInt(MAVPreferences.PREFS_IMPORT_RATE, import_rate.getValue());
+				AnalysisModelService.getInstance().setImportRate(import_rate.getValue());
+			}
+			if(page_cache.getValue()!=null) {
+				userPrefs.putInt(MAVPreferences.PREFS_PAGE_CACHE, page_cache.getValue());
+				AnalysisModelService.getInstance().setPageCache(page_cache.getValue());
+			}
 
 			try {
 				userPrefs.flush();
@@ -47,7 +47,10 @@ import org.lodgon.openmapfx.providers.BingTileProvider;
 import com.comino.flight.FXMLLoadHelper;
 import com.comino.flight.log.FileHandler;
 import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.widgets.charts.control.ChartControlWidget;
 import com.comino.flight.widgets.charts.control.IChartControl;
@@ -138,6 +141,7 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 	private Image plane_valid, plane_invalid;
 
 	private AnalysisModelService dataService = AnalysisModelService.getInstance();
+	private AnalysisDataModelMetaData meta   = AnalysisDataModelMetaData.getInstance();
 
 	private IMAVController control;
 
@@ -254,7 +258,7 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 		// Test paintlistener
 		canvasLayer.addPaintListener(new CanvasLayerPaintListener() {
 
-			Point2D p0; Point2D p1;  boolean first = true; AnalysisDataModel m;
+			Point2D p0; Point2D p1;  boolean first = true;
 
 
 			@Override
@@ -268,35 +272,34 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 
 				// TODO 0.3: MAVOpenMapTab: Draw path also in replay
 
+				AnalysisDataStore store = dataService.getModelList();
+
 				if(state.getRecordingProperty().get() &&
-						(dataService.getModelList().size()-index)>2*MAP_UPDATE_MS/dataService.getCollectorInterval_ms()) {
+						(store.size()-index)>2*MAP_UPDATE_MS/dataService.getCollectorInterval_ms()) {
 
+					KeyFigureMetaData lat = meta.getMetaData(TYPES[type][0]);
+					KeyFigureMetaData lon = meta.getMetaData(TYPES[type][1]);
 
 					gc.setStroke(Color.DARKKHAKI); gc.setFill(Color.DARKKHAKI);
 					gc.setLineWidth(2);
-					for(int i=index; i<dataService.getModelList().size();
+					for(int i=index; i<store.size();
 							i += MAP_UPDATE_MS/dataService.getCollectorInterval_ms()) {
 
-						m = dataService.getModelList().get(i);
-
-						if(m.getValue(TYPES[type][0])==0 && m.getValue(TYPES[type][1]) == 0)
+						if(store.getValue(i,lat)==0 && store.getValue(i,lon) == 0)
 							continue;
 
 						if(first) {
-							p0 = map.getMapArea().getMapPoint(
-									m.getValue(TYPES[type][0]),m.getValue(TYPES[type][1]));
+							p0 = map.getMapArea().getMapPoint(store.getValue(i,lat),store.getValue(i,lon));
 
 							gc.fillOval(p0.getX()-4, p0.getY()-4,8,8);
 							first = false; continue;
 						}
-						p1 = map.getMapArea().getMapPoint(
-								m.getValue(TYPES[type][0]),m.getValue(TYPES[type][1]));
+						p1 = map.getMapArea().getMapPoint(store.getValue(i,lat),store.getValue(i,lon));
 
 						gc.strokeLine(p0.getX(), p0.getY(), p1.getX(), p1.getY());
-						p0 = map.getMapArea().getMapPoint(
-								m.getValue(TYPES[type][0]),m.getValue(TYPES[type][1]));
+						p0 = p1;
 					}
-					index = dataService.getModelList().size();
+					index = store.size();
 				}
 			}
 
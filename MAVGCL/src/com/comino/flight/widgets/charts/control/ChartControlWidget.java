@@ -104,7 +104,7 @@ public class ChartControlWidget extends WidgetPane  {
 					chart.getTimeFrameProperty().set(newValue.intValue());
 			}
 
-			if(modelService.getModelList().size() < totalTime_sec * 1000 /  modelService.getCollectorInterval_ms() || modelService.isCollecting())
+			if(modelService.getTotalRecordingTimeMS() < totalTime_sec * 1000L || modelService.isCollecting())
 				scroll.setDisable(true);
 			else
 				scroll.setDisable(false);
@@ -125,7 +125,7 @@ public class ChartControlWidget extends WidgetPane  {
 
 		state.getLogLoadedProperty().addListener((observable, oldValue, newValue) -> {
 			if(newValue.booleanValue()) {
-			if(modelService.getModelList().size() < totalTime_sec * 1000 /  modelService.getCollectorInterval_ms() || modelService.isCollecting())
+			if(modelService.getTotalRecordingTimeMS() < totalTime_sec * 1000L || modelService.isCollecting())
 				scroll.setDisable(true);
 			else
 				scroll.setDisable(false);
@@ -139,7 +139,7 @@ public class ChartControlWidget extends WidgetPane  {
 				scroll.setValue(1);
 				return;
 			}
-			if(modelService.getModelList().size() < totalTime_sec * 1000 /  modelService.getCollectorInterval_ms())
+			if(modelService.getTotalRecordingTimeMS() < totalTime_sec * 1000L)
 				scroll.setDisable(true);
 			else
 				scroll.setDisable(false);
@@ -192,7 +192,7 @@ public class ChartControlWidget extends WidgetPane  {
 			chart.refreshChart();
 		}
 		scroll.setValue(0);
-		if(modelService.getModelList().size() > totalTime_sec * 1000 /  modelService.getCollectorInterval_ms())
+		if(modelService.getTotalRecordingTimeMS() > totalTime_sec * 1000L)
 			scroll.setDisable(false);
 	}
 
@@ -42,16 +42,18 @@ import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 
 import com.comino.flight.FXMLLoadHelper;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataStore;
+import com.comino.flight.model.store.EventTrack;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.flight.widgets.charts.control.IChartControl;
 import com.comino.flight.widgets.fx.controls.MovingAxis;
 import com.comino.flight.widgets.fx.controls.SectionLineChart;
 import com.comino.mav.control.IMAVController;
+import com.comino.msp.model.segment.LogMessage;
 import com.emxsys.chart.extension.XYAnnotations.Layer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -85,9 +87,6 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 
 	private static int MAXRECENT = 20;
 
-	private final static int COLLECTOR_CYCLE = 50;
-	private final static int REFRESH_RATE    = 50;
-	private final static int REFRESH_STEP    = REFRESH_RATE / COLLECTOR_CYCLE;
 
 	@FXML
 	private SectionLineChart<Number, Number> linechart;
@@ -135,6 +134,8 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 	private FloatProperty  scroll        = new SimpleFloatProperty(0);
 
 	private int resolution_ms 	= 50;
+	private int collector_cycle = 50;
+	private int resolution_step = 1;
 
 	private int current_x_pt      = 0;
 
@@ -192,7 +193,7 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 			});
 		});
 
-		current_x1_pt = timeFrame.intValue() * 1000 / COLLECTOR_CYCLE;
+		current_x1_pt = timeFrame.intValue() * 1000 / collector_cycle;
 
 		xAxis.setAutoRanging(false);
 		yAxis.setForceZeroInRange(false);
@@ -234,7 +235,7 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 			double x1 = xAxis.getValueForDisplay(mouseEvent.getX()-xAxis.getLayoutX()).doubleValue();
 			if((x1-x0)>1 && ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)) {
 
-				current_x0_pt = (int)(x0 * 1000f / COLLECTOR_CYCLE);
+				current_x0_pt = dataService.getIndexAt((long)(x0 * 1000000));
 				setXResolution((int)(x1-x0));
 			}
 			mouseEvent.consume();
@@ -282,11 +283,10 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 			if(dataService.isCollecting() && !isPaused)
 				return;
 
-			int delta = (int)(timeframe * 1000f / linechart.getWidth() * -event.getDeltaX() * 0.3f
-					/ COLLECTOR_CYCLE + 0.5f);
+			long delta_us = (long)(timeframe * 1000000f / linechart.getWidth() * -event.getDeltaX() * 0.3f);
 			event.consume();
 
-			current_x0_pt = current_x0_pt + delta;
+			current_x0_pt = dataService.getIndexAt(dataService.getTimeAt(current_x0_pt) + delta_us);
 			if(current_x0_pt<0)
 				current_x0_pt=0;
 			Platform.runLater(() -> {
@@ -521,12 +521,15 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 	}
 
 	private  void updateGraph(boolean refresh) {
-		float dt_sec = 0; AnalysisDataModel m =null; boolean set_bounds = false;
+		float dt_sec = 0; boolean set_bounds = false; long tms = 0;
 
 		if(disabledProperty().get())
 			return;
 
 		if(refresh) {
+			collector_cycle = dataService.getCollectorInterval_ms();
+			resolution_step = Math.max(1, resolution_ms / collector_cycle);
+
 			pool.invalidateAll();
 			series1.getData().clear();
 			series2.getData().clear();
@@ -536,70 +539,65 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 			yoffset = 0;
 
 			current_x_pt  = current_x0_pt;
-			current_x1_pt = current_x0_pt + (int)(timeframe * 1000f / COLLECTOR_CYCLE);
+			current_x1_pt = dataService.getIndexAt(dataService.getTimeAt(current_x0_pt) + (long)(timeframe * 1000000f));
 			setXAxisBounds(current_x0_pt,current_x1_pt);
 		}
 
-		if(current_x_pt<dataService.getModelList().size() && dataService.getModelList().size()>0 ) {
+		AnalysisDataStore store = dataService.getModelList();
+		EventTrack.Snapshot<LogMessage> messages = store.getMessages().snapshot();
 
-			int max_x = dataService.getModelList().size();
-			if((!state.getRecordingProperty().get() || isPaused) && current_x1_pt < max_x)
-				max_x = current_x1_pt;
+		if(current_x_pt<store.size() && store.size()>0 ) {
 
-			while(current_x_pt<max_x ) {
+			// only plotted points are visited; their min/max comes from the
+			// pyramid and their time from the chunk table if not in memory
+			int msg_index = messages.indexOf(store.estimateTms(current_x_pt));
 
-				dt_sec = current_x_pt *  COLLECTOR_CYCLE / 1000f;
+			int max_x = store.size();
+			if((!state.getRecordingProperty().get() || isPaused) && current_x1_pt < max_x)
+				max_x = current_x1_pt;
 
-				m = dataService.getModelList().get(current_x_pt);
+			int next_pt = Math.max(resolution_step, (current_x_pt + resolution_step - 1) / resolution_step * resolution_step);
 
-				if(m.msg!=null && current_x_pt > 0 && m.msg.msg!=null
-						&& ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)
-						&& display_annotations) {
-					if((current_x_pt - last_annotation_pos) > 150)
-						yoffset=0;
+			while(next_pt < max_x) {
 
-					linechart.getAnnotations().add(new LineMessageAnnotation(this,dt_sec,yoffset++, m.msg,
-							(resolution_ms<300) && annotations.isSelected()),
-							Layer.FOREGROUND);
-					last_annotation_pos = current_x_pt;
-				}
+				set_bounds |= advance(next_pt);
 
-				if(((current_x_pt * COLLECTOR_CYCLE) % resolution_ms) == 0 && current_x_pt > 0) {
+				tms = store.estimateTms(next_pt);
+				dt_sec = tms / 1000000f;
+				msg_index = annotate(messages, msg_index, tms, next_pt);
 
-					if(current_x_pt > current_x1_pt) {
-						if(series1.getData().size()>0 && type1.hash!=0) {
-							pool.invalidate(series1.getData().get(0));
-							series1.getData().remove(0);
-						}
+				if(next_pt > current_x1_pt) {
+					if(series1.getData().size()>0 && type1.hash!=0) {
+						pool.invalidate(series1.getData().get(0));
+						series1.getData().remove(0);
+					}
 
-						if(series2.getData().size()>0 && type2.hash!=0) {
-							pool.invalidate(series2.getData().get(0));
-							series2.getData().remove(0);
-						}
+					if(series2.getData().size()>0 && type2.hash!=0) {
+						pool.invalidate(series2.getData().get(0));
+						series2.getData().remove(0);
+					}
 
-						if(series3.getData().size()>0 && type3.hash!=0) {
-							pool.invalidate(series3.getData().get(0));
-							series3.getData().remove(0);
-						}
+					if(series3.getData().size()>0 && type3.hash!=0) {
+						pool.invalidate(series3.getData().get(0));
+						series3.getData().remove(0);
 					}
+				}
 
-					if(type1.hash!=0 && m.getValue(type1)!=Float.NaN)
-						series1.getData().add(pool.checkOut(dt_sec,searchMinMax(current_x_pt,resolution_ms/COLLECTOR_CYCLE,type1)));
-					if(type2.hash!=0 && m.getValue(type2)!=Float.NaN)
-						series2.getData().add(pool.checkOut(dt_sec,searchMinMax(current_x_pt,resolution_ms/COLLECTOR_CYCLE,type2)));
-					if(type3.hash!=0 && m.getValue(type3)!=Float.NaN)
-						series3.getData().add(pool.checkOut(dt_sec,searchMinMax(current_x_pt,resolution_ms/COLLECTOR_CYCLE,type3)));
+				if(type1.hash!=0)
+					series1.getData().add(pool.checkOut(dt_sec,searchMinMax(store,next_pt,resolution_step,type1)));
+				if(type2.hash!=0)
+					series2.getData().add(pool.checkOut(dt_sec,searchMinMax(store,next_pt,resolution_step,type2)));
+				if(type3.hash!=0)
+					series3.getData().add(pool.checkOut(dt_sec,searchMinMax(store,next_pt,resolution_step,type3)));
 
-				}
+				set_bounds |= advance(next_pt + 1);
+				next_pt += resolution_step;
+			}
 
-				if(current_x_pt > current_x1_pt) {
-					set_bounds = true;
-					if(!isPaused) {
-						current_x0_pt += REFRESH_STEP;
-						current_x1_pt += REFRESH_STEP;
-					}
-				}
-				current_x_pt++;
+			// rows after the last plotted point
+			if(current_x_pt < max_x) {
+				msg_index = annotate(messages, msg_index, store.estimateTms(max_x - 1), max_x - 1);
+				set_bounds |= advance(max_x);
 			}
 
 			if(set_bounds)
@@ -607,13 +605,54 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 		}
 	}
 
+	/**
+	 * Adds the annotations of the messages up to tms, starting at the cursor.
+	 *
+	 * @return cursor after the messages
+	 */
+	private int annotate(EventTrack.Snapshot<LogMessage> messages, int msg_index, long tms, int pt) {
+		int end = messages.indexAfter(tms);
+		for(; msg_index < end; msg_index++) {
+			LogMessage msg = messages.get(msg_index);
+			if(msg!=null && pt > 0 && msg.msg!=null
+					&& ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)
+					&& display_annotations) {
+				if((pt - last_annotation_pos) > 150)
+					yoffset=0;
+
+				linechart.getAnnotations().add(new LineMessageAnnotation(this,messages.getTms(msg_index) / 1000000f,yoffset++, msg,
+						(resolution_ms<300) && annotations.isSelected()),
+						Layer.FOREGROUND);
+				last_annotation_pos = pt;
+			}
+		}
+		return Math.max(msg_index, end);
+	}
+
+	/**
+	 * Moves over the rows up to end; the time frame follows the rows beyond it.
+	 *
+	 * @return true if rows were beyond the time frame
+	 */
+	private boolean advance(int end) {
+		int first = Math.max(current_x_pt, current_x1_pt + 1);
+		current_x_pt = Math.max(current_x_pt, end);
+		if(first >= end)
+			return false;
+		if(!isPaused) {
+			current_x0_pt += end - first;
+			current_x1_pt += end - first;
+		}
+		return true;
+	}
+
 	private  void setXAxisBounds(int lower_pt, int upper_pt) {
 		double tick = timeframe/5;
 		if(tick < 1) tick = 1;
 		xAxis.setTickUnit(tick);
 		xAxis.setMinorTickCount(10);
-		xAxis.setLowerBound(lower_pt * COLLECTOR_CYCLE / 1000F);
-		xAxis.setUpperBound(upper_pt * COLLECTOR_CYCLE / 1000f);
+		xAxis.setLowerBound(dataService.getTimeAt(lower_pt) / 1000000f);
+		xAxis.setUpperBound(dataService.getTimeAt(upper_pt) / 1000000f);
 	}
 
 
@@ -663,19 +702,10 @@ public class LineChartWidget extends BorderPane implements IChartControl {
 	}
 
 	// Determines spikes, if not all datapoints are reported.
-	private float searchMinMax(int current_x, int length, KeyFigureMetaData m) {
-		float max = -Float.MAX_VALUE; float v; int index=0;
-
-		if(length==1 || dataService.getModelList().size() < length)
-			return dataService.getModelList().get(current_x).getValue(m);
-
-		for(int i=0;i<length;i++) {
-			v = dataService.getModelList().get(current_x-i).getValue(m);
-			if(Math.abs(v)>max) {
-				max = Math.abs(v); index = i;
-			}
-		}
-		return dataService.getModelList().get(current_x-index).getValue(m);
+	private float searchMinMax(AnalysisDataStore store, int current_x, int length, KeyFigureMetaData m) {
+		if(length==1 || store.size() < length)
+			return store.getValue(current_x,m);
+		return store.getPeak(current_x-length+1, current_x, m);
 	}
 
 }
@@ -40,10 +40,10 @@ import java.util.List;
 import javax.imageio.ImageIO;
 
 import com.comino.flight.FXMLLoadHelper;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.widgets.charts.control.IChartControl;
 import com.comino.flight.widgets.charts.line.XYDataPool;
@@ -97,7 +97,6 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 	};
 
 
-	private static int COLLECTOR_CYCLE = 50;
 
 	@FXML
 	private LineChart<Number,Number> linechart;
@@ -166,6 +165,8 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 	private FloatProperty   scroll       = new SimpleFloatProperty(0);
 
 	private int resolution_ms 	= 50;
+	private int collector_cycle = 50;
+	private int resolution_step = 1;
 	private float scale = 0;
 
 
@@ -454,8 +455,6 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 
 	private void updateGraph(boolean refresh) {
 
-		AnalysisDataModel m =null;
-
 		if(disabledProperty().get())
 			return;
 
@@ -466,13 +465,16 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 				pool.invalidateAll();
 			}
 
+			collector_cycle = dataService.getCollectorInterval_ms();
+			resolution_step = Math.max(1, resolution_ms / collector_cycle);
+
 			current_x_pt = current_x0_pt;
-			current_x1_pt = current_x0_pt + timeFrame.intValue() * 1000 / COLLECTOR_CYCLE;
+			current_x1_pt = dataService.getIndexAt(dataService.getTimeAt(current_x0_pt) + timeFrame.intValue() * 1000000L);
 
 			if(current_x_pt < 0) current_x_pt = 0;
 		}
 
-		List<AnalysisDataModel> mList = dataService.getModelList();
+		AnalysisDataStore mList = dataService.getModelList();
 
 		if(current_x_pt<mList.size() && mList.size()>0 ) {
 
@@ -482,14 +484,12 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 
 			while(current_x_pt<max_x) {
 
-				if(((current_x_pt * COLLECTOR_CYCLE) % resolution_ms) == 0) {
-
-					m = mList.get(current_x_pt);
+				if((current_x_pt % resolution_step) == 0) {
 
 					if(current_x_pt > current_x1_pt) {
 
-						current_x0_pt += resolution_ms / COLLECTOR_CYCLE;
-						current_x1_pt += resolution_ms / COLLECTOR_CYCLE;
+						current_x0_pt += resolution_step;
+						current_x1_pt += resolution_step;
 
 						if(series1.getData().size()>0) {
 							pool.invalidate(series1.getData().get(0));
@@ -505,10 +505,10 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 					if(type1_x.hash!=0 && type1_y.hash!=0) {
 						if(rotation_rad==0) {
 							series1.getData().add(pool.checkOut(
-									m.getValue(type1_x), m.getValue(type1_y))
+									mList.getValue(current_x_pt,type1_x), mList.getValue(current_x_pt,type1_y))
 									);
 						} else {
-							float[] r = rotateRad(m.getValue(type1_x), m.getValue(type1_y),
+							float[] r = rotateRad(mList.getValue(current_x_pt,type1_x), mList.getValue(current_x_pt,type1_y),
 									       rotation_rad);
 							series1.getData().add(pool.checkOut(r[0],r[1]));
 						}
@@ -517,16 +517,16 @@ public class XYChartWidget extends BorderPane implements IChartControl {
 					if(type2_x.hash!=0 && type2_y.hash!=0) {
 						if(rotation_rad==0) {
 							series2.getData().add(pool.checkOut(
-									m.getValue(type2_x), m.getValue(type2_y))
+									mList.getValue(current_x_pt,type2_x), mList.getValue(current_x_pt,type2_y))
 									);
 						} else {
-							float[] r = rotateRad(m.getValue(type2_x), m.getValue(type2_y),
+							float[] r = rotateRad(mList.getValue(current_x_pt,type2_x), mList.getValue(current_x_pt,type2_y),
 								          rotation_rad);
 							series2.getData().add(pool.checkOut(r[0],r[1]));
 						}
 					}
-					current_x_pt++;
 				}
+				current_x_pt++;
 			}
 		}
 	}
@@ -42,6 +42,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.mavlink.messages.MAV_SEVERITY;
 
+import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.EventTrack;
+import com.comino.flight.observables.StateProperties;
 import com.comino.flight.widgets.fx.controls.WidgetPane;
 import com.comino.mav.control.IMAVController;
 import com.comino.msp.main.control.listener.IMAVMessageListener;
@@ -133,6 +136,11 @@ public class MessagesWidget extends WidgetPane  {
 
 		});
 
+		StateProperties.getInstance().getLogLoadedProperty().addListener((observable, oldvalue, newvalue) -> {
+			if(newvalue.booleanValue())
+				Platform.runLater(() -> showLoadedMessages());
+		});
+
 		listview.getSelectionModel().selectedIndexProperty().addListener(new ChangeListener<Object>() {
 			@Override
 			public void changed(ObservableValue<?> observable, Object oldvalue, Object newValue) {
@@ -145,6 +153,17 @@ public class MessagesWidget extends WidgetPane  {
 		});
 	}
 
+	private void showLoadedMessages() {
+		EventTrack.Snapshot<LogMessage> messages = AnalysisModelService.getInstance().getModelList().getMessages().snapshot();
+		listview.getItems().clear();
+		for(int i = 0; i < messages.size(); i++) {
+			LogMessage m = messages.get(i);
+			if(m!=null && m.msg!=null)
+				listview.getItems().add(String.format("%6.1fs : \t%s", messages.getTms(i) / 1e6f, m.msg));
+		}
+		showMessages();
+	}
+
 	public void showMessages() {
 
 		if(listview.getItems().isEmpty()) {
@@ -101,6 +101,8 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPModeCha
 	private String filename;
 	private long tms;
 
+	private final Tooltip statistics = new Tooltip();
+
 	public StatusLineWidget() {
 		FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("StatusLineWidget.fxml"));
 		fxmlLoader.setRoot(this);
@@ -165,6 +167,8 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPModeCha
 							time.setBackgroundColor(Color.GRAY);
 						}
 
+						statistics.setText("Recording: "+collector.getCollectorStatistics());
+
 						if(filename.isEmpty()) {
 							if(control.isConnected()) {
 								time.setMode(Badge.MODE_ON);
@@ -194,6 +198,7 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPModeCha
 		};
         driver.setAlignment(Pos.CENTER_LEFT);
 		messages.setTooltip(new Tooltip("Click to show messages"));
+		time.setTooltip(statistics);
 	}
 
 	public void setup(ChartControlWidget chartControlWidget, IMAVController control) {
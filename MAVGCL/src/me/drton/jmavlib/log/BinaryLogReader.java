@@ -13,58 +13,103 @@ import java.nio.channels.FileChannel;
 public abstract class BinaryLogReader implements LogReader {
     protected ByteBuffer buffer;
     protected FileChannel channel = null;
+    /** file position of the end of the buffer */
     protected long channelPosition = 0;
+    private MappedFile mapped;
+    private long windowStart = 0;
+    private boolean shared = false;
+    /** the current window has been reported by fillBuffer() */
+    private boolean filled = false;
 
+    /**
+     * The file is memory mapped, so parsing works directly on the mapped
+     * window and seeking inside a window does not touch the file.
+     */
     public BinaryLogReader(String fileName) throws IOException {
-        buffer = ByteBuffer.allocate(8192);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.flip();
         channel = new RandomAccessFile(fileName, "r").getChannel();
+        mapped = new MappedFile(channel, ByteOrder.LITTLE_ENDIAN);
+        map(0);
+    }
+
+    /**
+     * Independent reader on the file of another reader, with its own position.
+     * Closing it leaves the file open; it must not be used after the reader it
+     * was created from is closed.
+     */
+    protected BinaryLogReader(BinaryLogReader reader) throws IOException {
+        channel = reader.channel;
+        mapped = reader.mapped;
+        shared = true;
+        map(0);
     }
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        if (!shared) {
+            mapped.close();
+            channel.close();
+        }
         channel = null;
+        buffer = null;
     }
 
+    private void map(long pos) throws IOException {
+        buffer = mapped.map(pos);
+        filled = false;
+        windowStart = pos;
+        channelPosition = pos + buffer.limit();
+    }
+
+    /**
+     * Make more data available after the current position. The first call
+     * after the end of the file has been mapped reports the remaining bytes.
+     *
+     * @return number of bytes added
+     */
     public int fillBuffer() throws IOException {
-        buffer.compact();
-        int n = channel.read(buffer);
-        buffer.flip();
-        if (n < 0) {
-            throw new EOFException();
+        if (!mapped.hasMore(windowStart, buffer.limit())) {
+            if (filled) {
+                throw new EOFException();
+            }
+            filled = true;
+            return buffer.remaining();
         }
-        channelPosition += n;
-        return n;
+        int remaining = buffer.remaining();
+        map(position());
+        return buffer.remaining() - remaining;
     }
 
     public void fillBuffer(int required) throws IOException {
         if (buffer.remaining() < required) {
-            buffer.compact();
-            int n = channel.read(buffer);
-            buffer.flip();
-            if (n < 0 || buffer.remaining() < required) {
+            if (mapped.hasMore(windowStart, buffer.limit())) {
+                map(position());
+            }
+            if (buffer.remaining() < required) {
                 throw new EOFException();
             }
-            channelPosition += n;
         }
     }
 
     protected long position() throws IOException {
-        return channelPosition - buffer.remaining();
+        return windowStart + buffer.position();
     }
 
     protected int position(long pos) throws IOException {
-        buffer.clear();
-        channel.position(pos);
-        channelPosition = pos;
-        int n = channel.read(buffer);
-        buffer.flip();
-        if (n < 0) {
+        if (pos >= mapped.size()) {
             throw new EOFException();
         }
-        channelPosition += n;
-        return n;
+        if (pos >= windowStart && pos < channelPosition) {
+            buffer.position((int) (pos - windowStart));
+        } else {
+            map(pos);
+        }
+        return buffer.remaining();
+    }
+
+    /**
+     * @return size of the log file in bytes
+     */
+    public long size() {
+        return mapped.size();
     }
 }
@@ -3,6 +3,7 @@ package me.drton.jmavlib.log;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +23,7 @@ import me.drton.jmavlib.mavlink.MAVLinkStream;
  */
 public class MAVLinkLogReader implements LogReader {
     private RandomAccessFile file;
+    private MappedFile mapped;
     private Map<String, String> fieldsFormats = new HashMap<String, String>();
     private MAVLinkStream stream;
     private Map<String, Object> parameters = new HashMap<String, Object>();
@@ -42,12 +44,14 @@ public class MAVLinkLogReader implements LogReader {
         }
 
         file = new RandomAccessFile(fileName, "r");
-        stream = new MAVLinkStream(schema, file.getChannel());
+        mapped = new MappedFile(file.getChannel(), ByteOrder.BIG_ENDIAN);
+        stream = new MAVLinkStream(schema, file.getChannel(), mapped);
         updateInfo();
     }
 
     @Override
     public void close() throws IOException {
+        mapped.close();
         file.close();
     }
 
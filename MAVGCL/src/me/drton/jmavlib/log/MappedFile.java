@@ -0,0 +1,116 @@
+package me.drton.jmavlib.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only memory mapping of a log file. Files up to the window size are mapped
+ * at once; larger files (also beyond 2 GB) are mapped in windows on demand.
+ * Mappings are released on close(), otherwise they hold the file until they
+ * are garbage collected (which e.g. prevents deleting it on Windows).
+ */
+public class MappedFile implements Closeable {
+    public static final long WINDOW_SIZE = 1L << 30;
+
+    // Java 9 and later: Unsafe.invokeCleaner(), Java 8: DirectBuffer.cleaner().clean()
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private final ByteOrder order;
+    private final List<MappedByteBuffer> windows = new ArrayList<MappedByteBuffer>();
+    private boolean closed = false;
+
+    public MappedFile(FileChannel channel, ByteOrder order) throws IOException {
+        this(channel, order, WINDOW_SIZE);
+    }
+
+    public MappedFile(FileChannel channel, ByteOrder order, long windowSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.order = order;
+        this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Map a window starting at the given file position.
+     *
+     * @return buffer positioned at 0, which corresponds to pos in the file
+     */
+    public synchronized ByteBuffer map(long pos) throws IOException {
+        if (closed) {
+            throw new IOException("Mapped file is closed");
+        }
+        long len = Math.max(0, Math.min(windowSize, size - pos));
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+        buffer.order(order);
+        windows.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Unmap all windows. Buffers returned by map() must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (MappedByteBuffer window : windows) {
+            unmap(window);
+        }
+        windows.clear();
+    }
+
+    /**
+     * @return true if the file continues after a window of the given length at pos
+     */
+    public boolean hasMore(long pos, int length) {
+        return pos + length < size;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            }
+        } catch (Exception e) {
+            // not supported by this VM, the mapping is released by the garbage collector
+        }
+    }
+}
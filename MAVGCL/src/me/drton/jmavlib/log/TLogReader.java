@@ -0,0 +1,587 @@
+package me.drton.jmavlib.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.drton.jmavlib.mavlink.MAVLinkCRC;
+import me.drton.jmavlib.mavlink.MAVLinkDataType;
+import me.drton.jmavlib.mavlink.MAVLinkField;
+import me.drton.jmavlib.mavlink.MAVLinkMessageDefinition;
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+
+/**
+ * Reader for MAVLink telemetry logs (.tlog) as written by ground stations: each
+ * MAVLink 1 or 2 frame is preceded by its receive time in us (Unix time, big
+ * endian). The file is memory mapped and frames are validated by their CRC and
+ * read in place: fields of the current frame are accessed by their offset in
+ * the schema, so reading allocates nothing. Corrupted data is skipped by
+ * searching the next frame.
+ * <p>
+ * The constructor makes one pass over the log to collect parameters, status
+ * texts, the system ID of the vehicle and a seek index. The seek index splits
+ * the log into segments, which can be read in parallel by segment readers.
+ */
+public class TLogReader implements LogReader {
+    private static final int TIME_LEN = 8;
+    private static final byte STX_V1 = (byte) 0xFE;
+    private static final byte STX_V2 = (byte) 0xFD;
+    private static final int HEADER_V1 = 6;
+    private static final int HEADER_V2 = 10;
+    private static final int CRC_LEN = 2;
+    private static final int SIGNATURE_LEN = 13;
+    private static final long SEEK_INTERVAL = 1000000;
+    private static final int MAV_TYPE_GCS = 6;
+
+    public static class StatusText {
+        public final long timestamp;
+        public final int systemID;
+        public final int severity;
+        public final String text;
+
+        StatusText(long timestamp, int systemID, int severity, String text) {
+            this.timestamp = timestamp;
+            this.systemID = systemID;
+            this.severity = severity;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("STATUSTEXT: t=%s sys=%s severity=%s %s", timestamp, systemID, severity, text);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedFile mapped;
+    private final MAVLinkSchema schema;
+    private final Charset charset = Charset.forName("latin1");
+    private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer buffer;
+    private long windowStart = 0;
+    private long position = 0;
+    private final long end;
+    private final boolean segment;
+
+    // Current frame
+    public int msgID = -1;
+    public int systemID = -1;
+    public int componentID = -1;
+    public long timestamp = 0;
+    public MAVLinkMessageDefinition definition = null;
+    private long framePosition = 0;
+    private int payload = 0;
+    private int payloadLength = 0;
+
+    private long startMicroseconds = -1;
+    private long endMicroseconds = -1;
+    private long sizeUpdates = 0;
+    private long errorBytes = 0;
+    private int vehicleID = -1;
+
+    private int seekCount = 0;
+    private long[] seekTimes = new long[1024];
+    private long[] seekPositions = new long[1024];
+    private long[] seekLatest = new long[1024];
+
+    private Map<String, Object> parameters = new HashMap<String, Object>();
+    private Map<String, String> fieldsFormats = new HashMap<String, String>();
+    private List<StatusText> statusTexts = new ArrayList<StatusText>();
+    private final List<Exception> errors = new ArrayList<Exception>();
+
+    public TLogReader(String fileName, MAVLinkSchema schema) throws IOException, FormatErrorException {
+        this.schema = schema;
+        this.file = new RandomAccessFile(fileName, "r");
+        this.mapped = new MappedFile(file.getChannel(), ByteOrder.LITTLE_ENDIAN);
+        this.buffer = mapped.map(0);
+        this.end = mapped.size();
+        this.segment = false;
+        updateInfo();
+    }
+
+    private TLogReader(TLogReader reader, long start, long end) throws IOException {
+        this.schema = reader.schema;
+        this.file = reader.file;
+        this.mapped = reader.mapped;
+        this.end = end;
+        this.segment = true;
+        startMicroseconds = reader.startMicroseconds;
+        endMicroseconds = reader.endMicroseconds;
+        sizeUpdates = reader.sizeUpdates;
+        vehicleID = reader.vehicleID;
+        parameters = reader.parameters;
+        fieldsFormats = reader.fieldsFormats;
+        statusTexts = reader.statusTexts;
+        windowStart = start;
+        buffer = mapped.map(start);
+        position = start;
+    }
+
+    private void updateInfo() throws IOException, FormatErrorException {
+        MAVLinkMessageDefinition heartbeat = schema.getMessageDefinition("HEARTBEAT");
+        MAVLinkMessageDefinition paramValue = schema.getMessageDefinition("PARAM_VALUE");
+        MAVLinkMessageDefinition statusText = schema.getMessageDefinition("STATUSTEXT");
+        BitSet seen = new BitSet(256);
+        long lastSeek = Long.MIN_VALUE;
+
+        while (next()) {
+            if (startMicroseconds < 0) {
+                startMicroseconds = timestamp;
+            }
+            if (timestamp >= lastSeek + SEEK_INTERVAL) {
+                addSeek(timestamp, framePosition, endMicroseconds);
+                lastSeek = timestamp;
+            }
+            if (timestamp > endMicroseconds) {
+                endMicroseconds = timestamp;
+            }
+            sizeUpdates++;
+
+            if (!seen.get(msgID)) {
+                seen.set(msgID);
+                for (MAVLinkField field : definition.fields) {
+                    fieldsFormats.put(definition.name + "." + field.name, field.type.ctype
+                            + (field.isArray() ? "[" + field.arraySize + "]" : ""));
+                }
+            }
+
+            if (definition == heartbeat) {
+                if (vehicleID < 0 && getLong(heartbeat.fieldsByName.get("type")) != MAV_TYPE_GCS) {
+                    vehicleID = systemID;
+                }
+            } else if (definition == paramValue) {
+                parameters.put(getString(paramValue.fieldsByName.get("param_id")), getParameterValue(paramValue));
+            } else if (definition == statusText) {
+                statusTexts.add(new StatusText(timestamp, systemID,
+                        (int) getLong(statusText.fieldsByName.get("severity")),
+                        getString(statusText.fieldsByName.get("text"))));
+            }
+        }
+        if (startMicroseconds < 0) {
+            throw new FormatErrorException("No MAVLink messages found");
+        }
+        if (errorBytes > 0) {
+            errors.add(new FormatErrorException(errorBytes + " bytes of corrupted data skipped"));
+        }
+        seek(0);
+    }
+
+    private Object getParameterValue(MAVLinkMessageDefinition paramValue) {
+        float value = getFloat(paramValue.fieldsByName.get("param_value"));
+        if (getLong(paramValue.fieldsByName.get("param_type")) == MAVLinkDataType.INT32.id) {
+            return Float.floatToIntBits(value);
+        }
+        return value;
+    }
+
+    private void addSeek(long time, long pos, long latest) {
+        if (seekCount == seekTimes.length) {
+            seekTimes = Arrays.copyOf(seekTimes, seekCount * 2);
+            seekPositions = Arrays.copyOf(seekPositions, seekCount * 2);
+            seekLatest = Arrays.copyOf(seekLatest, seekCount * 2);
+        }
+        seekTimes[seekCount] = time;
+        seekPositions[seekCount] = pos;
+        seekLatest[seekCount] = latest;
+        seekCount++;
+    }
+
+    /**
+     * Split the log at seek points into segments with about the same duration.
+     *
+     * @return count + 1 segment bounds as file positions
+     */
+    public long[] getSegments(int count) {
+        count = Math.max(1, Math.min(count, seekCount));
+        long[] segments = new long[count + 1];
+        for (int i = 1; i < count; i++) {
+            segments[i] = seekPositions[(int) ((long) i * seekCount / count)];
+        }
+        segments[count] = end;
+        return segments;
+    }
+
+    /**
+     * @return latest timestamp of the frames before a segment start from
+     *         {@link #getSegments(int)}, -1 if there are none
+     */
+    public long getLatestTimestamp(long position) {
+        int i = Arrays.binarySearch(seekPositions, 0, seekCount, position);
+        return i < 0 ? -1 : seekLatest[i];
+    }
+
+    /**
+     * Create a reader for the frames between two file positions, e.g. from
+     * {@link #getSegments(int)}. It shares the schema and the results of the
+     * first pass of this reader, but reads independently, so segments can be
+     * decoded in parallel. {@link #next()} returns false at the end of the segment.
+     */
+    public TLogReader createSegmentReader(long start, long end) throws IOException {
+        return new TLogReader(this, start, end);
+    }
+
+    /**
+     * Make the bytes pos..pos+len of the file available in the buffer.
+     *
+     * @return false if the file ends before
+     */
+    private boolean ensure(long pos, int len) throws IOException {
+        if (pos + len > mapped.size()) {
+            return false;
+        }
+        if (pos < windowStart || pos + len > windowStart + buffer.limit()) {
+            windowStart = pos;
+            buffer = mapped.map(pos);
+        }
+        return true;
+    }
+
+    /**
+     * Read the next frame of a message known by the schema. Fields of the
+     * frame can be read until the next call.
+     *
+     * @return false at the end of the log
+     */
+    public boolean next() throws IOException {
+        while (position < end && ensure(position, TIME_LEN + HEADER_V1 + CRC_LEN)) {
+            int p = (int) (position - windowStart);
+            byte stx = buffer.get(p + TIME_LEN);
+            if (!isSTX(stx)) {
+                resync();
+                continue;
+            }
+            boolean v2 = stx == STX_V2;
+            int len = buffer.get(p + TIME_LEN + 1) & 0xFF;
+            int header = v2 ? HEADER_V2 : HEADER_V1;
+            int frame = header + len + CRC_LEN;
+            if (v2 && (buffer.get(p + TIME_LEN + 2) & 0x01) != 0) {
+                frame += SIGNATURE_LEN;
+            }
+            if (!ensure(position, TIME_LEN + frame)) {
+                // Truncated frame at the end of the log
+                errorBytes += mapped.size() - position;
+                position = mapped.size();
+                return false;
+            }
+            p = (int) (position - windowStart);
+            int f = p + TIME_LEN;
+            int id = v2 ? (buffer.get(f + 7) & 0xFF) | (buffer.get(f + 8) & 0xFF) << 8 | (buffer.get(f + 9) & 0xFF) << 16
+                    : buffer.get(f + 5) & 0xFF;
+            MAVLinkMessageDefinition d = id < 256 ? schema.getMessageDefinition(id) : null;
+            if (d == null) {
+                // Unknown message cannot be validated, skip it only if the next record follows
+                if (isRecordStart(position + TIME_LEN + frame)) {
+                    position += TIME_LEN + frame;
+                } else {
+                    resync();
+                }
+                continue;
+            }
+            if (!checkCRC(f, header + len, d.extraCRC)) {
+                resync();
+                continue;
+            }
+            framePosition = position;
+            timestamp = Long.reverseBytes(buffer.getLong(p));
+            msgID = id;
+            systemID = buffer.get(f + header - (v2 ? 5 : 3)) & 0xFF;
+            componentID = buffer.get(f + header - (v2 ? 4 : 2)) & 0xFF;
+            definition = d;
+            payload = f + header;
+            payloadLength = len;
+            position += TIME_LEN + frame;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isRecordStart(long pos) throws IOException {
+        if (pos == mapped.size()) {
+            return true;
+        }
+        return ensure(pos, TIME_LEN + 1) && isSTX(buffer.get((int) (pos - windowStart) + TIME_LEN));
+    }
+
+    private static boolean isSTX(byte b) {
+        return b == STX_V1 || b == STX_V2;
+    }
+
+    private boolean checkCRC(int f, int len, byte extraCRC) {
+        int crc = MAVLinkCRC.X25_INIT_CRC;
+        for (int i = f + 1; i < f + len; i++) {
+            crc = MAVLinkCRC.accumulateCRC(buffer.get(i), crc);
+        }
+        crc = MAVLinkCRC.accumulateCRC(extraCRC, crc);
+        return crc == (buffer.getShort(f + len) & 0xFFFF);
+    }
+
+    /**
+     * Skip to the next start sign after the current position.
+     */
+    private void resync() throws IOException {
+        long pos = position + TIME_LEN + 1;
+        while (ensure(pos, 1)) {
+            if (isSTX(buffer.get((int) (pos - windowStart)))) {
+                break;
+            }
+            pos++;
+        }
+        errorBytes += pos - TIME_LEN - position;
+        position = pos - TIME_LEN;
+    }
+
+    /**
+     * @return field value of the current frame as float
+     */
+    public float getFloat(int offset, MAVLinkDataType type) {
+        if (offset + type.size > payloadLength) {
+            return getFloat(truncated(offset, type.size), 0, type);
+        }
+        return getFloat(buffer, payload + offset, type);
+    }
+
+    /**
+     * @return field value of the current frame as long
+     */
+    public long getLong(int offset, MAVLinkDataType type) {
+        if (offset + type.size > payloadLength) {
+            return getLong(truncated(offset, type.size), 0, type);
+        }
+        return getLong(buffer, payload + offset, type);
+    }
+
+    /**
+     * MAVLink 2 drops trailing zero bytes of the payload, so fields may be cut
+     * off in part or completely.
+     *
+     * @return buffer with the available bytes of the field, filled up with zeros
+     */
+    private ByteBuffer truncated(int offset, int size) {
+        for (int i = 0; i < size; i++) {
+            scratch.put(i, offset + i < payloadLength ? buffer.get(payload + offset + i) : 0);
+        }
+        return scratch;
+    }
+
+    private static float getFloat(ByteBuffer b, int p, MAVLinkDataType type) {
+        switch (type) {
+            case FLOAT:
+                return b.getFloat(p);
+            case DOUBLE:
+                return (float) b.getDouble(p);
+            default:
+                return getLong(b, p, type);
+        }
+    }
+
+    private static long getLong(ByteBuffer b, int p, MAVLinkDataType type) {
+        switch (type) {
+            case CHAR:
+            case INT8:
+                return b.get(p);
+            case UINT8:
+                return b.get(p) & 0xFF;
+            case INT16:
+                return b.getShort(p);
+            case UINT16:
+                return b.getShort(p) & 0xFFFF;
+            case INT32:
+                return b.getInt(p);
+            case UINT32:
+                return b.getInt(p) & 0xFFFFFFFFL;
+            case FLOAT:
+                return (long) b.getFloat(p);
+            case DOUBLE:
+                return (long) b.getDouble(p);
+            default:
+                return b.getLong(p);
+        }
+    }
+
+    public float getFloat(MAVLinkField field) {
+        return getFloat(field.offset, field.type);
+    }
+
+    public long getLong(MAVLinkField field) {
+        return getLong(field.offset, field.type);
+    }
+
+    public String getString(MAVLinkField field) {
+        int n = 0;
+        while (n < field.size && field.offset + n < payloadLength && buffer.get(payload + field.offset + n) != 0) {
+            n++;
+        }
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = buffer.get(payload + field.offset + i);
+        }
+        return new String(b, charset);
+    }
+
+    /**
+     * @return field value of the current frame, arrays as Object[] and char arrays as String
+     */
+    public Object get(MAVLinkField field) {
+        if (field.isArray()) {
+            if (field.type == MAVLinkDataType.CHAR) {
+                return getString(field);
+            }
+            Object[] res = new Object[field.arraySize];
+            for (int i = 0; i < field.arraySize; i++) {
+                res[i] = getValue(field.offset + i * field.type.size, field.type);
+            }
+            return res;
+        }
+        return getValue(field.offset, field.type);
+    }
+
+    private Object getValue(int offset, MAVLinkDataType type) {
+        switch (type) {
+            case FLOAT:
+                return getFloat(offset, type);
+            case DOUBLE:
+                return offset + type.size > payloadLength ? truncated(offset, type.size).getDouble(0)
+                        : buffer.getDouble(payload + offset);
+            case UINT32:
+            case UINT64:
+            case INT64:
+                return getLong(offset, type);
+            default:
+                return (int) getLong(offset, type);
+        }
+    }
+
+    /**
+     * @return system ID of the first heartbeat not sent by a ground station or -1
+     */
+    public int getSystemID() {
+        return vehicleID;
+    }
+
+    /**
+     * @return file position of the next frame
+     */
+    public long position() {
+        return position;
+    }
+
+    public long size() {
+        return mapped.size();
+    }
+
+    /**
+     * @return status texts of all systems in the log
+     */
+    public List<StatusText> getStatusTexts() {
+        return statusTexts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!segment) {
+            mapped.close();
+            file.close();
+        }
+    }
+
+    @Override
+    public boolean seek(long seekTime) throws IOException, FormatErrorException {
+        position = 0;
+        if (seekTime == 0) {
+            return true;
+        }
+        int i = Arrays.binarySearch(seekTimes, 0, seekCount, seekTime);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i >= 0) {
+            position = seekPositions[i];
+        }
+        while (true) {
+            long pos = position;
+            if (!next()) {
+                return false;
+            }
+            if (timestamp >= seekTime) {
+                position = pos;
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
+        if (!next()) {
+            throw new EOFException();
+        }
+        for (MAVLinkField field : definition.fields) {
+            update.put(definition.name + "." + field.name, get(field));
+        }
+        return timestamp;
+    }
+
+    @Override
+    public Map<String, String> getFields() {
+        return fieldsFormats;
+    }
+
+    @Override
+    public String getFormat() {
+        return "TLog";
+    }
+
+    @Override
+    public String getSystemName() {
+        return "MAVLink";
+    }
+
+    @Override
+    public long getSizeUpdates() {
+        return sizeUpdates;
+    }
+
+    @Override
+    public long getStartMicroseconds() {
+        return startMicroseconds;
+    }
+
+    @Override
+    public long getSizeMicroseconds() {
+        return endMicroseconds - startMicroseconds;
+    }
+
+    @Override
+    public long getUTCTimeReferenceMicroseconds() {
+        return startMicroseconds;
+    }
+
+    @Override
+    public Map<String, Object> getVersion() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public List<Exception> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void clearErrors() {
+        errors.clear();
+    }
+}
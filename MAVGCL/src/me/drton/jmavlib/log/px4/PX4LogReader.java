@@ -3,11 +3,13 @@ package me.drton.jmavlib.log.px4;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import me.drton.jmavlib.log.BinaryLogReader;
 import me.drton.jmavlib.log.FormatErrorException;
@@ -314,10 +316,25 @@ public class PX4LogReader extends BinaryLogReader {
     }
 
     @Override
-    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
+    public long readUpdate(final Map<String, Object> update) throws IOException, FormatErrorException {
+        return readUpdate(new Consumer<PX4LogMessage>() {
+            @Override
+            public void accept(PX4LogMessage msg) {
+                applyMsg(update, msg);
+            }
+        });
+    }
+
+    /**
+     * Read messages of the next time step and pass them to the consumer instead
+     * of collecting them by name.
+     *
+     * @return timestamp of the update
+     */
+    public long readUpdate(Consumer<PX4LogMessage> consumer) throws IOException, FormatErrorException {
         long t = time;
         if (lastMsg != null) {
-            applyMsg(update, lastMsg);
+            consumer.accept(lastMsg);
             lastMsg = null;
         }
         while (true) {
@@ -355,11 +372,18 @@ public class PX4LogReader extends BinaryLogReader {
                 }
             }
 
-            applyMsg(update, msg);
+            consumer.accept(msg);
         }
         return t;
     }
 
+    /**
+     * @return descriptions of all message types of the log
+     */
+    public Collection<PX4LogMessageDescription> getMessageDescriptions() {
+        return messageDescriptions.values();
+    }
+
     @Override
     public Map<String, String> getFields() {
         return fieldsList;
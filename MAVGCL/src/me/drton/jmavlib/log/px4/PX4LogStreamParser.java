@@ -0,0 +1,168 @@
+package me.drton.jmavlib.log.px4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental parser for PX4 logs that arrive in pieces, e.g. while they are
+ * downloaded. Received bytes are appended to a growing buffer and all complete
+ * messages are parsed at once; an incomplete message stays in the buffer until
+ * the rest arrives. Updates are reported per TIME message like
+ * {@link PX4LogReader#readUpdate(java.util.function.Consumer)} does.
+ */
+public class PX4LogStreamParser {
+    private static final int HEADER_LEN = 3;
+    private static final byte HEADER_HEAD1 = (byte) 0xA3;
+    private static final byte HEADER_HEAD2 = (byte) 0x95;
+
+    public interface Listener {
+        /**
+         * All message descriptions are known, called before the first data message.
+         */
+        void formats(Collection<PX4LogMessageDescription> descriptions);
+
+        /**
+         * Data message of the current time step.
+         */
+        void message(PX4LogMessage msg);
+
+        /**
+         * All messages of the time step have been passed.
+         *
+         * @param time timestamp of the time step
+         */
+        void update(long time);
+    }
+
+    private final Listener listener;
+    private final Map<Integer, PX4LogMessageDescription> messageDescriptions
+            = new HashMap<Integer, PX4LogMessageDescription>();
+
+    private byte[] data = new byte[64 * 1024];
+    private ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    private int start = 0;
+    private int end = 0;
+
+    private boolean formatsDone = false;
+    private long startMicroseconds = -1;
+    private long time = 0;
+    private long bytes = 0;
+    private long errors = 0;
+
+    public PX4LogStreamParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Append received bytes and parse all messages completed by them.
+     */
+    public void feed(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, data, end, len);
+        end += len;
+        bytes += len;
+        parse();
+    }
+
+    private void ensureCapacity(int len) {
+        if (end + len <= data.length) {
+            return;
+        }
+        int pending = end - start;
+        byte[] d = data;
+        if (pending + len > data.length) {
+            d = new byte[Math.max(data.length * 2, pending + len)];
+            buffer = ByteBuffer.wrap(d).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        System.arraycopy(data, start, d, 0, pending);
+        data = d;
+        start = 0;
+        end = pending;
+    }
+
+    private void parse() {
+        while (end - start >= HEADER_LEN) {
+            if (data[start] != HEADER_HEAD1 || data[start + 1] != HEADER_HEAD2) {
+                start++;
+                errors++;
+                continue;
+            }
+            int msgType = data[start + 2] & 0xFF;
+            PX4LogMessageDescription description = msgType == PX4LogMessageDescription.FORMAT.type
+                    ? PX4LogMessageDescription.FORMAT : messageDescriptions.get(msgType);
+            if (description == null) {
+                start += HEADER_LEN;
+                errors++;
+                continue;
+            }
+            if (end - start < description.length) {
+                return;
+            }
+            buffer.position(start + HEADER_LEN);
+            if (description == PX4LogMessageDescription.FORMAT) {
+                PX4LogMessageDescription d = new PX4LogMessageDescription(buffer);
+                messageDescriptions.put(d.type, d);
+            } else {
+                if (!formatsDone) {
+                    formatsDone = true;
+                    listener.formats(messageDescriptions.values());
+                }
+                apply(description.parseMessage(buffer));
+            }
+            start += description.length;
+        }
+    }
+
+    private void apply(PX4LogMessage msg) {
+        if ("TIME".equals(msg.description.name)) {
+            long t = msg.getLong(0);
+            if (time == 0) {
+                startMicroseconds = t;
+            } else {
+                listener.update(time);
+            }
+            time = t;
+            return;
+        }
+        listener.message(msg);
+    }
+
+    /**
+     * Report the pending time step, as no further TIME message follows the
+     * messages after the last one. Call once after the last bytes were fed.
+     */
+    public void finish() {
+        if (time != 0) {
+            listener.update(time);
+            time = 0;
+        }
+    }
+
+    /**
+     * @return timestamp of the first TIME message or -1
+     */
+    public long getStartMicroseconds() {
+        return startMicroseconds;
+    }
+
+    /**
+     * @return number of bytes received
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes or messages skipped because of bad headers or unknown types
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public Collection<PX4LogMessageDescription> getMessageDescriptions() {
+        return messageDescriptions.values();
+    }
+}
@@ -0,0 +1,99 @@
+package me.drton.jmavlib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+import me.drton.jmavlib.log.FormatErrorException;
+
+/**
+ * Reusable view on a DATA message in the reader buffer. The reader keeps one
+ * record per subscription and repositions it for every message, so decoding
+ * allocates nothing. Values are read on access from precomputed field offsets
+ * and are only valid until the next message is read.
+ */
+public class DataRecord {
+    public final MessageFormat format;
+    public final int multiID;
+    public final int msgID;
+    public long timestamp;
+
+    private final int timestampOffset;
+    private final byte timestampType;
+    private ByteBuffer buffer;
+    private int base;
+
+    DataRecord(MessageFormat format, int multiID, int msgID) throws FormatErrorException {
+        this.format = format;
+        this.multiID = multiID;
+        this.msgID = msgID;
+        int ts = format.getTimestampField();
+        if (ts < 0)
+            throw new FormatErrorException("Message " + format.name + " has no timestamp field");
+        timestampOffset = format.getOffset(ts);
+        timestampType = format.getTypeCode(ts);
+    }
+
+    void wrap(ByteBuffer buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+        //TODO: handle wrap-arounds of non-64bit timestamps
+        timestamp = getLong(timestampOffset, timestampType);
+    }
+
+    /**
+     * Value of a field or array element at a byte offset with a type code, as
+     * returned by {@link ULogReader#resolveField(int, String)}.
+     */
+    public float getFloat(int offset, byte type) {
+        int p = base + offset;
+        switch (type) {
+        case MessageFormat.TYPE_FLOAT:
+            return buffer.getFloat(p);
+        case MessageFormat.TYPE_DOUBLE:
+            return (float) buffer.getDouble(p);
+        default:
+            return getLong(offset, type);
+        }
+    }
+
+    public double getDouble(int offset, byte type) {
+        int p = base + offset;
+        switch (type) {
+        case MessageFormat.TYPE_FLOAT:
+            return buffer.getFloat(p);
+        case MessageFormat.TYPE_DOUBLE:
+            return buffer.getDouble(p);
+        default:
+            return getLong(offset, type);
+        }
+    }
+
+    public long getLong(int offset, byte type) {
+        int p = base + offset;
+        switch (type) {
+        case MessageFormat.TYPE_FLOAT:
+            return (long) buffer.getFloat(p);
+        case MessageFormat.TYPE_DOUBLE:
+            return (long) buffer.getDouble(p);
+        case MessageFormat.TYPE_INT8:
+        case MessageFormat.TYPE_CHAR:
+            return buffer.get(p);
+        case MessageFormat.TYPE_UINT8:
+            return buffer.get(p) & 0xFF;
+        case MessageFormat.TYPE_INT16:
+            return buffer.getShort(p);
+        case MessageFormat.TYPE_UINT16:
+            return buffer.getShort(p) & 0xFFFF;
+        case MessageFormat.TYPE_INT32:
+            return buffer.getInt(p);
+        case MessageFormat.TYPE_UINT32:
+            return buffer.getInt(p) & 0xFFFFFFFFL;
+        default:
+            return buffer.getLong(p);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DATA: t=%s multi_id=%s, name=%s", timestamp, multiID, format.name);
+    }
+}
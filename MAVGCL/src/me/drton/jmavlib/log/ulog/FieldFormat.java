@@ -36,6 +36,39 @@ class FieldFormat {
 
     }
 
+    /**
+     * @return size of a single element in bytes
+     */
+    int getElementSize() {
+        switch (type) {
+        case "double":
+        case "int64_t":
+        case "uint64_t":
+            return 8;
+        case "float":
+        case "int32_t":
+        case "uint32_t":
+            return 4;
+        case "int16_t":
+        case "uint16_t":
+            return 2;
+        case "int8_t":
+        case "uint8_t":
+        case "bool":
+        case "char":
+            return 1;
+        default:
+            throw new RuntimeException("Unsupported type: " + type);
+        }
+    }
+
+    /**
+     * @return size of the field in bytes
+     */
+    int getByteSize() {
+        return size >= 0 ? size * getElementSize() : getElementSize();
+    }
+
     boolean isArray() {
         return size >= 0 && !"char".equals(type);
     }
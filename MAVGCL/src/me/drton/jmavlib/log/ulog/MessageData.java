@@ -13,11 +13,18 @@ public class MessageData {
     public final Long timestamp;
     private final List<Object> data;
     public final int multiID;
+    /** subscription the message was logged with, -1 if unknown */
+    public final int msgID;
 
     public MessageData(MessageFormat format, ByteBuffer buffer, int multiID) throws FormatErrorException {
+        this(format, buffer, multiID, -1);
+    }
+
+    public MessageData(MessageFormat format, ByteBuffer buffer, int multiID, int msgID) throws FormatErrorException {
         this.format = format;
         this.data = format.parseBody(buffer);
         this.multiID = multiID;
+        this.msgID = msgID;
         Object t = get("timestamp");
         if (t == null)
             throw new FormatErrorException("Message " + format.name + " has no timestamp field");
@@ -21,6 +21,22 @@ public class MessageFormat {
     /** max multi id of all logged messages with this format */
     public int maxMultiID = 0;
 
+    /** byte offsets and type codes of the fields, see {@link #getOffset(int)} */
+    private int[] offsets = null;
+    private byte[] types = null;
+    private int timestampField = -1;
+
+    public static final byte TYPE_FLOAT = 0;
+    public static final byte TYPE_DOUBLE = 1;
+    public static final byte TYPE_INT8 = 2;
+    public static final byte TYPE_UINT8 = 3;
+    public static final byte TYPE_INT16 = 4;
+    public static final byte TYPE_UINT16 = 5;
+    public static final byte TYPE_INT32 = 6;
+    public static final byte TYPE_UINT32 = 7;
+    public static final byte TYPE_INT64 = 8;
+    public static final byte TYPE_CHAR = 9;
+
     public static String getString(ByteBuffer buffer, int len) {
         byte[] strBuf = new byte[len];
         buffer.get(strBuf);
@@ -90,6 +106,79 @@ public class MessageFormat {
         return data;
     }
 
+    /**
+     * Byte offset of a field in the message body. Valid after the nested types
+     * have been parsed.
+     */
+    public int getOffset(int field) {
+        if (offsets == null)
+            computeLayout();
+        return offsets[field];
+    }
+
+    /**
+     * Type code (TYPE_*) of a field or its elements.
+     */
+    public byte getTypeCode(int field) {
+        if (types == null)
+            computeLayout();
+        return types[field];
+    }
+
+    /**
+     * @return index of the timestamp field or -1
+     */
+    public int getTimestampField() {
+        if (offsets == null)
+            computeLayout();
+        return timestampField;
+    }
+
+    private void computeLayout() {
+        int[] o = new int[fields.size()];
+        byte[] t = new byte[fields.size()];
+        int offset = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            FieldFormat field = fields.get(i);
+            o[i] = offset;
+            t[i] = typeCode(field.type);
+            offset += field.getByteSize();
+            if (timestampField < 0 && "timestamp".equals(field.name))
+                timestampField = i;
+        }
+        types = t;
+        offsets = o;
+    }
+
+    private static byte typeCode(String type) {
+        switch (type) {
+        case "float":
+            return TYPE_FLOAT;
+        case "double":
+            return TYPE_DOUBLE;
+        case "int8_t":
+        case "bool":
+            return TYPE_INT8;
+        case "uint8_t":
+            return TYPE_UINT8;
+        case "int16_t":
+            return TYPE_INT16;
+        case "uint16_t":
+            return TYPE_UINT16;
+        case "int32_t":
+            return TYPE_INT32;
+        case "uint32_t":
+            return TYPE_UINT32;
+        case "int64_t":
+        case "uint64_t":
+            return TYPE_INT64;
+        case "char":
+            return TYPE_CHAR;
+        default:
+            throw new RuntimeException("Unsupported type: " + type);
+        }
+    }
+
     public void removeLastPaddingField() {
         if (fields.size() > 0) {
             if (fields.get(fields.size() - 1).name.startsWith("_padding")) {
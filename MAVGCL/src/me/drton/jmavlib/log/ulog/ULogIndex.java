@@ -0,0 +1,248 @@
+package me.drton.jmavlib.log.ulog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Result of the statistics pass over a ULog file: positions of all non-data
+ * messages (formats, subscriptions, parameters, info and logged messages) and
+ * sparse seek points in the data messages. Stored as sidecar file, it lets a
+ * reader replay the few non-data messages instead of scanning the whole log.
+ * The stored index is only used if size, modification time and the content
+ * hash of the log file match. The index directory is limited to the most
+ * recently used sidecars.
+ */
+class ULogIndex {
+    private static final int MAGIC = 0x554C4958; // "ULIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 * 7 + 4 + 4;
+
+    /** bytes of the log between two seek points */
+    static final int SEEK_SPACING = 64 * 1024;
+
+    private static final int MAX_FILES = 256;
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+    private static final String SUFFIX = ".uidx";
+
+    long size = 0;
+    long modified = 0;
+    long hash = 0;
+
+    long dataStart = 0;
+    long packets = 0;
+    long timeStart = -1;
+    long timeEnd = -1;
+
+    /** non-data messages and the last data timestamp before them */
+    int messageCount = 0;
+    long[] messagePositions = new long[64];
+    long[] messageTimes = new long[64];
+
+    /**
+     * seek points at data messages about every SEEK_SPACING bytes with the
+     * latest timestamp of the data messages before them
+     */
+    int seekCount = 0;
+    long[] seekTimestamps = new long[1024];
+    long[] seekPositions = new long[1024];
+
+    void addMessage(long position, long lastTime) {
+        if (messageCount == messagePositions.length) {
+            messagePositions = Arrays.copyOf(messagePositions, messageCount * 2);
+            messageTimes = Arrays.copyOf(messageTimes, messageCount * 2);
+        }
+        messagePositions[messageCount] = position;
+        messageTimes[messageCount] = lastTime;
+        messageCount++;
+    }
+
+    void addSeek(long timestamp, long position) {
+        if (seekCount == seekPositions.length) {
+            seekTimestamps = Arrays.copyOf(seekTimestamps, seekCount * 2);
+            seekPositions = Arrays.copyOf(seekPositions, seekCount * 2);
+        }
+        seekTimestamps[seekCount] = timestamp;
+        seekPositions[seekCount] = position;
+        seekCount++;
+    }
+
+    /**
+     * @return last seek point before all data messages at or after the time,
+     *         -1 if there is none
+     */
+    int findSeek(long time) {
+        int lo = 0;
+        int hi = seekCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seekTimestamps[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * @return sidecar file of a log in the index directory
+     */
+    static File getIndexFile(File indexDir, File logFile) {
+        String path = logFile.getAbsolutePath();
+        return new File(indexDir, logFile.getName() + "_" + Integer.toHexString(path.hashCode()) + SUFFIX);
+    }
+
+    /**
+     * Delete the least recently used sidecars of the index directory beyond
+     * MAX_FILES files or MAX_BYTES bytes. Loading a sidecar marks it as used.
+     */
+    static void prune(File indexDir) {
+        File[] files = indexDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[b], modified[a]));
+        long bytes = 0;
+        for (int i = 0; i < order.length; i++) {
+            File f = files[order[i]];
+            bytes += f.length();
+            if (i >= MAX_FILES || bytes > MAX_BYTES) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * @return stored index matching the given key or null
+     */
+    static ULogIndex load(File file, long size, long modified, long hash) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer b = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+            while (b.hasRemaining() && channel.read(b) >= 0) {
+            }
+            b.flip();
+            if (b.remaining() < HEADER_SIZE || b.getInt() != MAGIC || b.getInt() != VERSION) {
+                return null;
+            }
+            ULogIndex index = new ULogIndex();
+            index.size = b.getLong();
+            index.modified = b.getLong();
+            index.hash = b.getLong();
+            if (index.size != size || index.modified != modified || index.hash != hash) {
+                return null;
+            }
+            index.dataStart = b.getLong();
+            index.packets = b.getLong();
+            index.timeStart = b.getLong();
+            index.timeEnd = b.getLong();
+            index.messageCount = b.getInt();
+            index.seekCount = b.getInt();
+            if (b.remaining() < 16L * index.messageCount + 2L * index.seekCount) {
+                return null;
+            }
+            LongBuffer l = b.asLongBuffer();
+            index.messagePositions = get(l, index.messageCount);
+            index.messageTimes = get(l, index.messageCount);
+            b.position(b.position() + 16 * index.messageCount);
+            index.seekTimestamps = new long[Math.max(index.seekCount, 1)];
+            index.seekPositions = new long[Math.max(index.seekCount, 1)];
+            long t = 0;
+            long p = 0;
+            for (int i = 0; i < index.seekCount; i++) {
+                long d = getVarLong(b);
+                t += (d >>> 1) ^ -(d & 1);
+                p += getVarLong(b);
+                index.seekTimestamps[i] = t;
+                index.seekPositions[i] = p;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return index;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("ULog index " + file + " not readable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long[] get(LongBuffer l, int count) {
+        long[] a = new long[Math.max(count, 1)];
+        l.get(a, 0, count);
+        return a;
+    }
+
+    private static long getVarLong(ByteBuffer b) {
+        long v = 0;
+        int shift = 0;
+        byte x;
+        do {
+            x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            shift += 7;
+        } while (x < 0);
+        return v;
+    }
+
+    private static void putVarLong(ByteBuffer b, long v) {
+        while ((v & ~0x7FL) != 0) {
+            b.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte) v);
+    }
+
+    /**
+     * Write the index, replacing an existing one. Seek entries are stored
+     * as variable length deltas.
+     */
+    void save(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        file.getParentFile().mkdirs();
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + 16 * messageCount + 20 * seekCount);
+        b.putInt(MAGIC).putInt(VERSION);
+        b.putLong(size).putLong(modified).putLong(hash);
+        b.putLong(dataStart).putLong(packets).putLong(timeStart).putLong(timeEnd);
+        b.putInt(messageCount).putInt(seekCount);
+        LongBuffer l = b.asLongBuffer();
+        l.put(messagePositions, 0, messageCount);
+        l.put(messageTimes, 0, messageCount);
+        b.position(b.position() + 16 * messageCount);
+        long t = 0;
+        long p = 0;
+        for (int i = 0; i < seekCount; i++) {
+            long d = seekTimestamps[i] - t;
+            putVarLong(b, (d << 1) ^ (d >> 63));
+            putVarLong(b, seekPositions[i] - p);
+            t = seekTimestamps[i];
+            p = seekPositions[i];
+        }
+        b.flip();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        } catch (IOException e) {
+            System.err.println("ULog index " + file + " not written: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+}
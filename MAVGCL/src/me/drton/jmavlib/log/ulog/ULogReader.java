@@ -5,7 +5,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.zip.CRC32;
 
 import javax.swing.JFileChooser;
 
@@ -37,6 +42,9 @@ public class ULogReader extends BinaryLogReader {
 
     private String systemName = "PX4";
     private long dataStart = 0;
+    private long dataEnd = Long.MAX_VALUE;
+    /** subscription IDs of DATA messages to decode, all if null */
+    private BitSet subscriptionFilter = null;
     private Map<String, MessageFormat> messageFormats = new HashMap<String, MessageFormat>();
 
     private class Subscription {
@@ -46,8 +54,33 @@ public class ULogReader extends BinaryLogReader {
         }
         public MessageFormat format;
         public int multiID;
+        /** update keys of the fields and array elements */
+        private String[][] keys = null;
+
+        public String[][] getKeys() {
+            if (keys == null) {
+                String name = format.name + "_" + multiID;
+                String[][] k = new String[format.fields.size()][];
+                for (int i = 0; i < k.length; i++) {
+                    FieldFormat field = format.fields.get(i);
+                    if (field.isArray()) {
+                        k[i] = new String[field.size];
+                        for (int j = 0; j < field.size; j++) {
+                            k[i][j] = name + "." + field.name + "[" + j + "]";
+                        }
+                    } else {
+                        k[i] = new String[] { name + "." + field.name };
+                    }
+                }
+                keys = k;
+            }
+            return keys;
+        }
     }
 
+    /** reusable records of this reader, index is the message id */
+    private DataRecord[] records = new DataRecord[0];
+
     /** all subscriptions. Index is the message id */
     private ArrayList<Subscription> messageSubscriptions = new ArrayList<Subscription>();
 
@@ -87,23 +120,116 @@ public class ULogReader extends BinaryLogReader {
     }
     private List<Exception> errors = new ArrayList<Exception>();
 
-    /** Index for fast(er) seeking */
-    private ArrayList<SeekTime> seekTimes = null;
+    /** Index for fast(er) seeking and reopening */
+    private ULogIndex index = null;
 
-    private class SeekTime {
-        public SeekTime(long t, long pos) {
-            timestamp = t;
-            position = pos;
-        }
+    private static final int HASH_BLOCK = 64 * 1024;
 
-        public long timestamp;
-        public long position;
+    public ULogReader(String fileName) throws IOException, FormatErrorException {
+        this(fileName, null);
     }
 
-    public ULogReader(String fileName) throws IOException, FormatErrorException {
+    /**
+     * @param indexDir directory to keep the index of the file in, so it is not
+     *                 scanned again when opened next time. null to always scan.
+     */
+    public ULogReader(String fileName, File indexDir) throws IOException, FormatErrorException {
         super(fileName);
         parameterUpdates = new HashMap<String, List<ParamUpdate>>();
+        if (indexDir == null) {
+            updateStatistics();
+            return;
+        }
+        File file = new File(fileName);
+        File indexFile = ULogIndex.getIndexFile(indexDir, file);
+        long modified = file.lastModified();
+        long hash = contentHash();
+        index = ULogIndex.load(indexFile, size(), modified, hash);
+        if (index != null) {
+            replayStatistics();
+            return;
+        }
         updateStatistics();
+        index.size = size();
+        index.modified = modified;
+        index.hash = hash;
+        index.save(indexFile);
+        ULogIndex.prune(indexDir);
+    }
+
+    private ULogReader(ULogReader reader, long start, long end) throws IOException {
+        super(reader);
+        systemName = reader.systemName;
+        dataStart = reader.dataStart;
+        dataEnd = end;
+        messageFormats = reader.messageFormats;
+        messageSubscriptions = reader.messageSubscriptions;
+        fieldsList = reader.fieldsList;
+        sizeUpdates = reader.sizeUpdates;
+        sizeMicroseconds = reader.sizeMicroseconds;
+        startMicroseconds = reader.startMicroseconds;
+        utcTimeReference = reader.utcTimeReference;
+        nestedParsingDone = true;
+        version = reader.version;
+        parameters = reader.parameters;
+        parameterUpdates = reader.parameterUpdates;
+        index = reader.index;
+        subscriptionFilter = reader.subscriptionFilter;
+        position(start);
+    }
+
+    /**
+     * CRC32 of the first and last block of the file.
+     */
+    private long contentHash() throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer b = ByteBuffer.allocate(HASH_BLOCK);
+        long[] positions = { 0, Math.max(0, size() - HASH_BLOCK) };
+        for (long pos : positions) {
+            b.clear();
+            while (b.hasRemaining() && channel.read(b, pos + b.position()) > 0) {
+            }
+            b.flip();
+            crc.update(b);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Split the data section at seek points into segments with about the same
+     * number of data messages.
+     *
+     * @return file positions of the segment starts followed by the end of the file
+     */
+    public long[] getSegments(int count) {
+        int n = index.seekCount;
+        count = Math.max(1, Math.min(count, n));
+        long[] segments = new long[count + 1];
+        segments[0] = dataStart;
+        for (int i = 1; i < count; i++) {
+            segments[i] = index.seekPositions[(int) ((long) i * n / count)];
+        }
+        segments[count] = size();
+        return segments;
+    }
+
+    /**
+     * @return latest timestamp of the data messages before a segment start
+     *         from {@link #getSegments(int)}, -1 if there are none
+     */
+    public long getLatestTimestamp(long position) {
+        int i = Arrays.binarySearch(index.seekPositions, 0, index.seekCount, position);
+        return i < 0 ? -1 : index.seekTimestamps[i];
+    }
+
+    /**
+     * Create a reader for the data messages between two file positions, e.g. from
+     * {@link #getSegments(int)}. It shares the formats and subscriptions of this
+     * reader, but reads independently, so segments can be decoded in parallel.
+     * {@link #readData()} throws EOFException at the end of the segment.
+     */
+    public ULogReader createSegmentReader(long start, long end) throws IOException {
+        return new ULogReader(this, start, end);
     }
 
     @Override
@@ -188,100 +314,127 @@ public class ULogReader extends BinaryLogReader {
     private void updateStatistics() throws IOException, FormatErrorException {
         position(0);
         readFileHeader();
-        long packetsNum = 0;
-        long timeStart = -1;
-        long timeEnd = -1;
         long lastTime = -1;
-        fieldsList = new HashMap<String, String>();
-        seekTimes = new ArrayList<SeekTime>();
+        long lastSeek = 0;
+        index = new ULogIndex();
         while (true) {
             Object msg;
             long pos = position();
             try {
-                msg = readMessage();
+                msg = readMessage(true);
             } catch (EOFException e) {
                 break;
             }
-            packetsNum++;
-
-            if (msg instanceof MessageFormat) {
-                MessageFormat msgFormat = (MessageFormat) msg;
-                messageFormats.put(msgFormat.name, msgFormat);
-
-            } else if (msg instanceof MessageAddLogged) {
-                //from now on we cannot have any new MessageFormat's, so we
-                //can parse the nested types
-                if (!nestedParsingDone) {
-                    for (MessageFormat m : messageFormats.values()) {
-                        m.parseNestedTypes(messageFormats);
-                    }
-                    //now do a 2. pass to remove the last padding field
-                    for (MessageFormat m : messageFormats.values()) {
-                        m.removeLastPaddingField();
-                    }
-                    nestedParsingDone = true;
-                }
-                MessageAddLogged msgAddLogged = (MessageAddLogged) msg;
-                MessageFormat msgFormat = messageFormats.get(msgAddLogged.name);
-                if(msgFormat == null)
-                    throw new FormatErrorException("Format of subscribed message not found: " + msgAddLogged.name);
-                Subscription subscription = new Subscription(msgFormat, msgAddLogged.multiID);
-                if (msgAddLogged.msgID < messageSubscriptions.size()) {
-                    messageSubscriptions.set(msgAddLogged.msgID, subscription);
-                } else {
-                    while (msgAddLogged.msgID > messageSubscriptions.size())
-                        messageSubscriptions.add(null);
-                    messageSubscriptions.add(subscription);
+            index.packets++;
+
+            if (msg instanceof DataRecord) {
+                if (index.dataStart == 0) {
+                    index.dataStart = pos;
                 }
-                if (msgAddLogged.multiID > msgFormat.maxMultiID)
-                    msgFormat.maxMultiID = msgAddLogged.multiID;
-
-            } else if (msg instanceof MessageParameter) {
-                MessageParameter msgParam = (MessageParameter) msg;
-                if (parameters.containsKey(msgParam.getKey())) {
-                    System.out.println("update to parameter: " + msgParam.getKey() + " value: " + msgParam.value + " at t = " + lastTime);
-                    // maintain a record of parameters which change during flight
-                    if (parameterUpdates.containsKey(msgParam.getKey())) {
-                        parameterUpdates.get(msgParam.getKey()).add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
-                    } else {
-                        List<ParamUpdate> updateList = new ArrayList<ParamUpdate>();
-                        updateList.add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
-                        parameterUpdates.put(msgParam.getKey(), updateList);
-                    }
-                } else {
-                    // add parameter to the parameters Map
-                    parameters.put(msgParam.getKey(), msgParam.value);
+                DataRecord msgData = (DataRecord) msg;
+                if (index.seekCount == 0 || pos - lastSeek >= ULogIndex.SEEK_SPACING) {
+                    index.addSeek(index.timeEnd, pos);
+                    lastSeek = pos;
                 }
 
-            } else if (msg instanceof MessageInfo) {
-                MessageInfo msgInfo = (MessageInfo) msg;
-                if ("sys_name".equals(msgInfo.getKey())) {
-                    systemName = (String) msgInfo.value;
-                } else if ("ver_hw".equals(msgInfo.getKey())) {
-                    version.put("HW", msgInfo.value);
-                } else if ("ver_sw".equals(msgInfo.getKey())) {
-                    version.put("FW", msgInfo.value);
-                } else if ("time_ref_utc".equals(msgInfo.getKey())) {
-                    utcTimeReference = ((long) ((Number) msgInfo.value).intValue()) * 1000 * 1000;
+                if (index.timeStart < 0) {
+                    index.timeStart = msgData.timestamp;
                 }
+                if (index.timeEnd < msgData.timestamp) index.timeEnd = msgData.timestamp;
+                lastTime = msgData.timestamp;
+            } else {
+                index.addMessage(pos, lastTime);
+                processMessage(msg, lastTime);
+            }
+        }
+        finishStatistics();
+    }
 
-            } else if (msg instanceof MessageData) {
-                if (dataStart == 0) {
-                    dataStart = pos;
-                }
-                MessageData msgData = (MessageData) msg;
-                seekTimes.add(new SeekTime(msgData.timestamp, pos));
+    /**
+     * Restore the information of the statistics pass from the index by reading
+     * the non-data messages only.
+     */
+    private void replayStatistics() throws IOException, FormatErrorException {
+        position(0);
+        readFileHeader();
+        for (int i = 0; i < index.messageCount; i++) {
+            position(index.messagePositions[i]);
+            processMessage(readMessage(), index.messageTimes[i]);
+        }
+        finishStatistics();
+    }
 
-                if (timeStart < 0) {
-                    timeStart = msgData.timestamp;
+    private void processMessage(Object msg, long lastTime) throws FormatErrorException {
+        if (msg instanceof MessageFormat) {
+            MessageFormat msgFormat = (MessageFormat) msg;
+            messageFormats.put(msgFormat.name, msgFormat);
+
+        } else if (msg instanceof MessageAddLogged) {
+            //from now on we cannot have any new MessageFormat's, so we
+            //can parse the nested types
+            if (!nestedParsingDone) {
+                for (MessageFormat m : messageFormats.values()) {
+                    m.parseNestedTypes(messageFormats);
                 }
-                if (timeEnd < msgData.timestamp) timeEnd = msgData.timestamp;
-                lastTime = msgData.timestamp;
-            } else if (msg instanceof MessageLog) {
-                MessageLog msgLog = (MessageLog) msg;
-                loggedMessages.add(msgLog);
+                //now do a 2. pass to remove the last padding field
+                for (MessageFormat m : messageFormats.values()) {
+                    m.removeLastPaddingField();
+                }
+                nestedParsingDone = true;
+            }
+            MessageAddLogged msgAddLogged = (MessageAddLogged) msg;
+            MessageFormat msgFormat = messageFormats.get(msgAddLogged.name);
+            if(msgFormat == null)
+                throw new FormatErrorException("Format of subscribed message not found: " + msgAddLogged.name);
+            Subscription subscription = new Subscription(msgFormat, msgAddLogged.multiID);
+            if (msgAddLogged.msgID < messageSubscriptions.size()) {
+                messageSubscriptions.set(msgAddLogged.msgID, subscription);
+            } else {
+                while (msgAddLogged.msgID > messageSubscriptions.size())
+                    messageSubscriptions.add(null);
+                messageSubscriptions.add(subscription);
+            }
+            if (msgAddLogged.multiID > msgFormat.maxMultiID)
+                msgFormat.maxMultiID = msgAddLogged.multiID;
+
+        } else if (msg instanceof MessageParameter) {
+            MessageParameter msgParam = (MessageParameter) msg;
+            if (parameters.containsKey(msgParam.getKey())) {
+                System.out.println("update to parameter: " + msgParam.getKey() + " value: " + msgParam.value + " at t = " + lastTime);
+                // maintain a record of parameters which change during flight
+                if (parameterUpdates.containsKey(msgParam.getKey())) {
+                    parameterUpdates.get(msgParam.getKey()).add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
+                } else {
+                    List<ParamUpdate> updateList = new ArrayList<ParamUpdate>();
+                    updateList.add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
+                    parameterUpdates.put(msgParam.getKey(), updateList);
+                }
+            } else {
+                // add parameter to the parameters Map
+                parameters.put(msgParam.getKey(), msgParam.value);
             }
+
+        } else if (msg instanceof MessageInfo) {
+            MessageInfo msgInfo = (MessageInfo) msg;
+            if ("sys_name".equals(msgInfo.getKey())) {
+                systemName = (String) msgInfo.value;
+            } else if ("ver_hw".equals(msgInfo.getKey())) {
+                version.put("HW", msgInfo.value);
+            } else if ("ver_sw".equals(msgInfo.getKey())) {
+                version.put("FW", msgInfo.value);
+            } else if ("time_ref_utc".equals(msgInfo.getKey())) {
+                utcTimeReference = ((long) ((Number) msgInfo.value).intValue()) * 1000 * 1000;
+            }
+
+        } else if (msg instanceof MessageLog) {
+            MessageLog msgLog = (MessageLog) msg;
+            loggedMessages.add(msgLog);
         }
+    }
+
+    private void finishStatistics() throws IOException, FormatErrorException {
+        dataStart = index.dataStart;
+        fieldsList = new HashMap<String, String>();
 
         // fill the fieldsList now that we know how many multi-instances are in the log
         for (int k = 0; k < messageSubscriptions.size(); ++k) {
@@ -307,9 +460,9 @@ public class ULogReader extends BinaryLogReader {
                 }
             }
         }
-        startMicroseconds = timeStart;
-        sizeUpdates = packetsNum;
-        sizeMicroseconds = timeEnd - timeStart;
+        startMicroseconds = index.timeStart;
+        sizeUpdates = index.packets;
+        sizeMicroseconds = index.timeEnd - index.timeStart;
         seek(0);
 
         if (!errors.isEmpty()) {
@@ -328,19 +481,43 @@ public class ULogReader extends BinaryLogReader {
             return true;
         }
 
-        //find the position in seekTime. We could speed this up further by
-        //using a binary search
-        for (SeekTime sk : seekTimes) {
-            if (sk.timestamp >= seekTime) {
-                position(sk.position);
+        // start at the last seek point before seekTime and read on to the
+        // first data message at or after it
+        int i = index.findSeek(seekTime);
+        if (i >= 0) {
+            position(index.seekPositions[i]);
+        }
+        while (true) {
+            long pos = position();
+            Object msg;
+            try {
+                msg = readMessage(true);
+            } catch (EOFException e) {
+                return false;
+            }
+            if (msg instanceof DataRecord && ((DataRecord) msg).timestamp >= seekTime) {
+                position(pos);
                 return true;
             }
         }
-        return false;
     }
 
     private void applyMsg(Map<String, Object> update, MessageData msg) {
-        applyMsgAsName(update, msg, msg.format.name + "_" + msg.multiID);
+        if (msg.msgID < 0) {
+            applyMsgAsName(update, msg, msg.format.name + "_" + msg.multiID);
+            return;
+        }
+        final String[][] keys = messageSubscriptions.get(msg.msgID).getKeys();
+        for (int i = 0; i < keys.length; i++) {
+            if (msg.format.fields.get(i).isArray()) {
+                Object[] values = (Object[]) msg.get(i);
+                for (int j = 0; j < keys[i].length; j++) {
+                    update.put(keys[i][j], values[j]);
+                }
+            } else {
+                update.put(keys[i][0], msg.get(i));
+            }
+        }
     }
 
     void applyMsgAsName(Map<String, Object> update, MessageData msg, String msg_name) {
@@ -368,11 +545,140 @@ public class ULogReader extends BinaryLogReader {
         }
     }
 
+    /**
+     * Read next data message, skipping all other message types.
+     *
+     * @return data message
+     * @throws EOFException on end of stream
+     */
+    public MessageData readData() throws IOException, FormatErrorException {
+        while (true) {
+            Object msg = readMessage();
+            if (msg instanceof MessageData)
+                return (MessageData) msg;
+        }
+    }
+
+    /**
+     * Read next data message into the reusable record of its subscription,
+     * skipping all other message types. The record is only valid until the
+     * next message is read.
+     *
+     * @return data record
+     * @throws EOFException on end of stream
+     */
+    public DataRecord readRecord() throws IOException, FormatErrorException {
+        while (true) {
+            Object msg = readMessage(true);
+            if (msg instanceof DataRecord)
+                return (DataRecord) msg;
+        }
+    }
+
+    private DataRecord getRecord(int msgID, Subscription subscription) throws FormatErrorException {
+        if (msgID >= records.length) {
+            records = Arrays.copyOf(records, messageSubscriptions.size());
+        }
+        DataRecord record = records[msgID];
+        if (record == null || record.format != subscription.format) {
+            record = new DataRecord(subscription.format, subscription.multiID, msgID);
+            records[msgID] = record;
+        }
+        return record;
+    }
+
     @Override
     public Map<String, String> getFields() {
         return fieldsList;
     }
 
+    /**
+     * @return number of subscription IDs, valid IDs are below
+     */
+    public int getSubscriptionCount() {
+        return messageSubscriptions.size();
+    }
+
+    /**
+     * @return name of the subscription as used in field names (topic_multiID) or null
+     */
+    public String getSubscriptionName(int msgID) {
+        Subscription s = messageSubscriptions.get(msgID);
+        return s == null ? null : s.format.name + "_" + s.multiID;
+    }
+
+    /**
+     * Restrict decoding of DATA messages to the given subscription IDs. Other
+     * DATA messages are skipped by size without being parsed.
+     *
+     * @param filter subscription IDs to read, null to read all
+     */
+    public void setSubscriptionFilter(BitSet filter) {
+        subscriptionFilter = filter;
+    }
+
+    public BitSet getSubscriptionFilter() {
+        return subscriptionFilter;
+    }
+
+    /**
+     * Build a subscription filter for field names as in {@link #getFields()},
+     * e.g. "vehicle_attitude_0.q[0]".
+     */
+    public BitSet createSubscriptionFilter(Collection<String> fields) {
+        BitSet filter = new BitSet(messageSubscriptions.size());
+        for (String field : fields) {
+            int dot = field.indexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String name = field.substring(0, dot);
+            for (int id = 0; id < messageSubscriptions.size(); id++) {
+                if (name.equals(getSubscriptionName(id))) {
+                    filter.set(id);
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Resolve a numeric field name of a subscription (e.g. "x" or "q[2]") to its
+     * position in the data message.
+     *
+     * @return { field index, array index or -1, byte offset, type code } or null
+     *         if not available
+     */
+    public int[] resolveField(int msgID, String field) {
+        Subscription s = messageSubscriptions.get(msgID);
+        if (s == null)
+            return null;
+        final MessageFormat format = s.format;
+        final ArrayList<FieldFormat> fields = format.fields;
+        for (int i = 0; i < fields.size(); i++) {
+            FieldFormat f = fields.get(i);
+            if (f.name.equals(field) && f.size < 0)
+                return new int[] { i, -1, format.getOffset(i), format.getTypeCode(i) };
+        }
+        int b = field.lastIndexOf('[');
+        if (b > 0 && field.endsWith("]")) {
+            String name = field.substring(0, b);
+            int element;
+            try {
+                element = Integer.parseInt(field.substring(b + 1, field.length() - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            for (int i = 0; i < fields.size(); i++) {
+                FieldFormat f = fields.get(i);
+                if (f.name.equals(name) && f.isArray() && element < f.size)
+                    return new int[] { i, element, format.getOffset(i) + element * f.getElementSize(),
+                            format.getTypeCode(i) };
+            }
+        }
+        return null;
+    }
+
     /**
      * Read next message from log
      *
@@ -381,7 +687,17 @@ public class ULogReader extends BinaryLogReader {
      * @throws EOFException on end of stream
      */
     public Object readMessage() throws IOException, FormatErrorException {
+        return readMessage(false);
+    }
+
+    /**
+     * @param record return DATA messages as reusable {@link DataRecord}
+     */
+    private Object readMessage(boolean record) throws IOException, FormatErrorException {
         while (true) {
+            if (position() >= dataEnd) {
+                throw new EOFException();
+            }
             fillBuffer(HDRLEN);
             long pos = position();
             int s1 = buffer.get() & 0xFF;
@@ -409,7 +725,17 @@ public class ULogReader extends BinaryLogReader {
                     buffer.position(buffer.position() + msgSize - 1);
                     continue;
                 }
-                msg = new MessageData(subscription.format, buffer, subscription.multiID);
+                if (subscriptionFilter != null && !subscriptionFilter.get(msgID)) {
+                    buffer.position(buffer.position() + msgSize - 2);
+                    continue;
+                }
+                if (record) {
+                    DataRecord r = getRecord(msgID, subscription);
+                    r.wrap(buffer, buffer.position());
+                    buffer.position(buffer.position() + msgSize - 2);
+                    return r;
+                }
+                msg = new MessageData(subscription.format, buffer, subscription.multiID, msgID);
                 break;
             case MESSAGE_TYPE_INFO:
                 msg = new MessageInfo(buffer);
@@ -2,6 +2,7 @@ package me.drton.jmavlib.mavlink;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -31,6 +32,15 @@ public class MAVLinkSchema {
         processXMLFile(xmlFileName);
     }
 
+    /**
+     * Schema from a single definition, e.g. a resource. Includes are not supported.
+     */
+    public MAVLinkSchema(InputStream xml) throws ParserConfigurationException, IOException, SAXException {
+        Document doc = xmlBuilder.parse(xml);
+        doc.getDocumentElement().normalize();
+        processMessages(doc.getDocumentElement());
+    }
+
     public ByteOrder getByteOrder() {
         return byteOrder;
     }
@@ -51,7 +61,10 @@ public class MAVLinkSchema {
             String includeFile = includeElems.item(i).getTextContent();
             processXMLFile(new File(xmlFile.getParentFile(), includeFile).getPath());
         }
+        processMessages(root);
+    }
 
+    private void processMessages(Element root) {
         NodeList msgElems = ((Element) root.getElementsByTagName("messages").item(0)).getElementsByTagName("message");
         for (int i = 0; i < msgElems.getLength(); i++) {
             Element msg = (Element) msgElems.item(i);
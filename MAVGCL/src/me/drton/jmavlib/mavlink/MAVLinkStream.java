@@ -6,6 +6,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
 
+import me.drton.jmavlib.log.MappedFile;
+
 /**
  * User: ton Date: 03.06.14 Time: 12:31
  */
@@ -15,6 +17,8 @@ public class MAVLinkStream {
     private byte txSeq = 0;
     private ByteBuffer buffer = ByteBuffer.allocate(8192);
     private boolean debug = false;
+    private MappedFile mapped = null;
+    private long windowStart = 0;
 
     public MAVLinkStream(MAVLinkSchema schema, ByteChannel channel) {
         this.schema = schema;
@@ -22,6 +26,16 @@ public class MAVLinkStream {
         buffer.flip();
     }
 
+    /**
+     * Read-only stream on a memory mapped file.
+     */
+    public MAVLinkStream(MAVLinkSchema schema, FileChannel channel, MappedFile mapped) throws IOException {
+        this.schema = schema;
+        this.channel = channel;
+        this.mapped = mapped;
+        this.buffer = mapped.map(0);
+    }
+
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
@@ -57,6 +71,15 @@ public class MAVLinkStream {
                     System.err.println(String.format("%s: %s", channel, e));
                 }
             } catch (BufferUnderflowException e) {
+                if (mapped != null) {
+                    // Continue with the next window of the file
+                    if (!mapped.hasMore(windowStart, buffer.limit())) {
+                        return null;
+                    }
+                    windowStart += buffer.position();
+                    buffer = mapped.map(windowStart);
+                    continue;
+                }
                 // Try to refill buffer
                 buffer.compact();
                 int n = 0;
@@ -76,6 +99,9 @@ public class MAVLinkStream {
     }
 
     public long position() throws IOException {
+        if (mapped != null) {
+            return windowStart + buffer.position();
+        }
         if (channel instanceof FileChannel) {
             return ((FileChannel) channel).position() + buffer.position() - buffer.limit();
         } else {
@@ -84,6 +110,15 @@ public class MAVLinkStream {
     }
 
     public void position(long pos) throws IOException {
+        if (mapped != null) {
+            if (pos >= windowStart && pos <= windowStart + buffer.limit()) {
+                buffer.position((int) (pos - windowStart));
+            } else {
+                windowStart = pos;
+                buffer = mapped.map(pos);
+            }
+            return;
+        }
         if (channel instanceof FileChannel) {
             ((FileChannel) channel).position(pos);
             buffer.clear();